@@ -0,0 +1,60 @@
+package uk.gov.ons.census.exceptionmanager.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Runs the exception manager jar in its own JVM, so the load test measures a real instance */
+class ApplicationProcess implements AutoCloseable {
+  private static final long STARTUP_TIMEOUT_SECONDS = 120;
+  private final Process process;
+
+  private ApplicationProcess(Process process) {
+    this.process = process;
+  }
+
+  static ApplicationProcess start(
+      LoadTestConfig config, boolean virtualThreads, ExceptionManagerClient client)
+      throws IOException, InterruptedException {
+    Path logFile = Path.of("target", "application-virtual-threads-" + virtualThreads + ".log");
+    logFile.getParent().toFile().mkdirs();
+
+    ProcessBuilder processBuilder =
+        new ProcessBuilder(
+            List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-jar",
+                config.applicationJar,
+                "--server.port=" + URI.create(config.baseUrl).getPort(),
+                "--spring.datasource.url=" + config.datasourceUrl));
+    processBuilder.environment().put("VIRTUAL_THREADS_ENABLED", String.valueOf(virtualThreads));
+    processBuilder.redirectErrorStream(true);
+    processBuilder.redirectOutput(logFile.toFile());
+
+    System.out.println("Starting " + config.applicationJar + ", logging to " + logFile);
+    ApplicationProcess application = new ApplicationProcess(processBuilder.start());
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STARTUP_TIMEOUT_SECONDS);
+    while (!client.isHealthy()) {
+      if (!application.process.isAlive() || System.nanoTime() > deadline) {
+        application.close();
+        throw new IllegalStateException(
+            "Application didn't start; see " + logFile.toAbsolutePath());
+      }
+      TimeUnit.SECONDS.sleep(1);
+    }
+
+    return application;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    // Stopped gracefully, as it would be in a rolling deployment, so it flushes what it's holding
+    process.destroy();
+    if (!process.waitFor(60, TimeUnit.SECONDS)) {
+      process.destroyForcibly().waitFor();
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package uk.gov.ons.census.exceptionmanager.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * One instance of one of our services, taking messages off its subscription. Most messages are fine
+ * and never bother the exception manager. A poison one fails every time it's delivered, and is
+ * redelivered with an increasing delay, until we're told to skip it or give up and dead-letter it.
+ * During a storm, every message is poison, as if a bad release had gone out.
+ */
+class Consumer implements Runnable {
+  private static final long MAX_RETRY_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private final ExceptionManagerClient client;
+  private final LoadTestConfig config;
+  private final BooleanSupplier stormInProgress;
+  private final String service;
+  private final String subscription;
+  private final SplittableRandom random = new SplittableRandom();
+  private final PriorityQueue<PoisonMessage> redeliveries =
+      new PriorityQueue<>((first, second) -> Long.compare(first.dueTime, second.dueTime));
+
+  Consumer(
+      ExceptionManagerClient client,
+      LoadTestConfig config,
+      BooleanSupplier stormInProgress,
+      int consumerNumber) {
+    this.client = client;
+    this.config = config;
+    this.stormInProgress = stormInProgress;
+
+    // A few instances of each service, as we'd run in production
+    this.service = "load test service " + consumerNumber % 10;
+    this.subscription = "load test subscription " + consumerNumber % 10;
+  }
+
+  @Override
+  public void run() {
+    long messageIntervalNanos = TimeUnit.SECONDS.toNanos(1) / config.messagesPerSecond;
+    long nextMessageTime = System.nanoTime();
+
+    while (!Thread.currentThread().isInterrupted()) {
+      long now = System.nanoTime();
+
+      while (!redeliveries.isEmpty() && redeliveries.peek().dueTime <= now) {
+        deliver(redeliveries.poll());
+      }
+
+      if (now >= nextMessageTime) {
+        nextMessageTime += messageIntervalNanos;
+
+        if (stormInProgress.getAsBoolean()) {
+          deliver(newPoisonMessage("uk.gov.ons.census.StormException", "Unknown event version"));
+        } else if (random.nextDouble() < config.poisonRatio) {
+          deliver(
+              newPoisonMessage(
+                  "java.lang.IllegalStateException", "Case not found " + UUID.randomUUID()));
+        }
+      }
+
+      long sleepUntil =
+          redeliveries.isEmpty()
+              ? nextMessageTime
+              : Math.min(nextMessageTime, redeliveries.peek().dueTime);
+      try {
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, sleepUntil - System.nanoTime()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void deliver(PoisonMessage message) {
+    JsonNode response = client.reportException(message.exceptionReport);
+    message.deliveryCount++;
+
+    if (response != null && response.path("skipIt").asBoolean()) {
+      client.storeSkippedMessage(buildSkippedMessage(message));
+      return;
+    }
+
+    if (response != null && response.path("peek").asBoolean()) {
+      client.peekReply(message.messageHash, message.payload);
+    }
+
+    if (message.deliveryCount <= config.maxRetries) {
+      long backoffNanos =
+          Math.min(
+              MAX_RETRY_BACKOFF_NANOS,
+              config.retryBackoff.toNanos() << Math.min(message.deliveryCount - 1, 20));
+      message.dueTime = System.nanoTime() + backoffNanos;
+      redeliveries.add(message);
+    }
+  }
+
+  private PoisonMessage newPoisonMessage(String exceptionClass, String exceptionMessage) {
+    PoisonMessage message = new PoisonMessage();
+    message.messageHash = UUID.randomUUID().toString().replace("-", "");
+    message.payload = buildPayload();
+
+    message.exceptionReport = new HashMap<>();
+    message.exceptionReport.put("messageHash", message.messageHash);
+    message.exceptionReport.put("service", service);
+    message.exceptionReport.put("subscription", subscription);
+    message.exceptionReport.put("exceptionClass", exceptionClass);
+    message.exceptionReport.put("exceptionMessage", exceptionMessage);
+    message.exceptionReport.put("exceptionRootCause", exceptionClass + ": " + exceptionMessage);
+    return message;
+  }
+
+  private Map<String, Object> buildSkippedMessage(PoisonMessage message) {
+    Map<String, Object> skippedMessage = new HashMap<>();
+    skippedMessage.put("messageHash", message.messageHash);
+    skippedMessage.put("messagePayload", message.payload);
+    skippedMessage.put("service", service);
+    skippedMessage.put("subscription", subscription);
+    skippedMessage.put("routingKey", "event.case.update");
+    skippedMessage.put("contentType", "application/json");
+    skippedMessage.put("headers", Map.of("source", service));
+    return skippedMessage;
+  }
+
+  /** JSON-ish text of about the configured size, compressible much as our events are */
+  private byte[] buildPayload() {
+    StringBuilder payload = new StringBuilder(config.payloadBytes + 100);
+    payload.append('[');
+    while (payload.length() < config.payloadBytes) {
+      payload
+          .append("{\"caseId\":\"")
+          .append(new UUID(random.nextLong(), random.nextLong()))
+          .append("\",\"caseRef\":\"")
+          .append(1000000000L + random.nextInt(1000000))
+          .append("\",\"addressLine1\":\"")
+          .append(random.nextInt(200))
+          .append(" Test Street\",\"postcode\":\"NP10 8XG\",\"receiptReceived\":false},");
+    }
+    payload.setCharAt(payload.length() - 1, ']');
+    return payload.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static final class PoisonMessage {
+    private String messageHash;
+    private byte[] payload;
+    private Map<String, Object> exceptionReport;
+    private int deliveryCount;
+    private long dueTime;
+  }
+}
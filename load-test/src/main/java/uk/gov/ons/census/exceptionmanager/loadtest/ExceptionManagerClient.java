@@ -0,0 +1,132 @@
+package uk.gov.ons.census.exceptionmanager.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Calls the exception manager the way our services and the support tool do, timing every call.
+ * Failures are counted rather than thrown, because a load test should keep going through them.
+ */
+class ExceptionManagerClient {
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private final HttpClient httpClient =
+      HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_1_1)
+          .connectTimeout(Duration.ofSeconds(5))
+          .build();
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final String baseUrl;
+  private final LatencyStats latencyStats;
+
+  ExceptionManagerClient(String baseUrl, LatencyStats latencyStats) {
+    this.baseUrl = baseUrl;
+    this.latencyStats = latencyStats;
+  }
+
+  /** Returns the response telling the service what to do, or null if the call failed */
+  JsonNode reportException(Map<String, Object> exceptionReport) {
+    return post("/reportexception", exceptionReport);
+  }
+
+  void peekReply(String messageHash, byte[] messagePayload) {
+    post("/peekreply", Map.of("messageHash", messageHash, "messagePayload", messagePayload));
+  }
+
+  void storeSkippedMessage(Map<String, Object> skippedMessage) {
+    post("/storeskippedmessage", skippedMessage);
+  }
+
+  void skipMessage(String messageHash, String skippingUser) {
+    post("/skipmessage", Map.of("messageHash", messageHash, "skippingUser", skippingUser));
+  }
+
+  /** Returns the summaries of messages seen at least this often, or null if the call failed */
+  JsonNode getBadMessagesSummary(int minimumSeenCount) {
+    return send(
+        "/badmessages/summary",
+        HttpRequest.newBuilder(
+                URI.create(baseUrl + "/badmessages/summary?minimumSeenCount=" + minimumSeenCount))
+            .timeout(REQUEST_TIMEOUT)
+            .GET()
+            .build());
+  }
+
+  /** Fetches the Prometheus metrics text, without timing it as part of the load */
+  String getMetrics() throws IOException, InterruptedException {
+    HttpResponse<String> response =
+        httpClient.send(
+            HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/prometheus"))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+    return response.statusCode() == 200 ? response.body() : null;
+  }
+
+  boolean isHealthy() {
+    try {
+      HttpResponse<String> response =
+          httpClient.send(
+              HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/health"))
+                  .timeout(Duration.ofSeconds(5))
+                  .GET()
+                  .build(),
+              HttpResponse.BodyHandlers.ofString());
+      return response.statusCode() == 200;
+    } catch (IOException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private JsonNode post(String endpoint, Object body) {
+    byte[] json;
+    try {
+      json = objectMapper.writeValueAsBytes(body);
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException("Could not serialise request to " + endpoint, e);
+    }
+
+    return send(
+        endpoint,
+        HttpRequest.newBuilder(URI.create(baseUrl + endpoint))
+            .timeout(REQUEST_TIMEOUT)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(json))
+            .build());
+  }
+
+  private JsonNode send(String endpoint, HttpRequest request) {
+    long startTime = System.nanoTime();
+    try {
+      HttpResponse<byte[]> response =
+          httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+      if (response.statusCode() / 100 != 2) {
+        latencyStats.recordError(endpoint);
+        return null;
+      }
+
+      latencyStats.recordSuccess(endpoint, System.nanoTime() - startTime);
+      return response.body().length == 0
+          ? objectMapper.nullNode()
+          : objectMapper.readTree(response.body());
+    } catch (IOException e) {
+      latencyStats.recordError(endpoint);
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package uk.gov.ons.census.exceptionmanager.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/** Follows the service's heap use through its Prometheus metrics, once a second */
+class HeapSampler implements Runnable {
+  private static final String HEAP_USED_METRIC = "jvm_memory_used_bytes{area=\"heap\"";
+  private final ExceptionManagerClient client;
+  private volatile long startHeapBytes = -1;
+  private volatile long peakHeapBytes = -1;
+  private volatile long lastHeapBytes = -1;
+
+  HeapSampler(ExceptionManagerClient client) {
+    this.client = client;
+  }
+
+  @Override
+  public void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      sample();
+
+      try {
+        TimeUnit.SECONDS.sleep(1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Starts again from the current heap use, so the warm-up doesn't count */
+  void reset() {
+    startHeapBytes = lastHeapBytes;
+    peakHeapBytes = lastHeapBytes;
+  }
+
+  void print(PrintStream out) {
+    if (lastHeapBytes < 0) {
+      out.println("heap: not available; is /actuator/prometheus exposed?");
+      return;
+    }
+
+    out.printf(
+        "heap: start %d MB, peak %d MB, end %d MB, growth %d MB%n",
+        toMegabytes(startHeapBytes),
+        toMegabytes(peakHeapBytes),
+        toMegabytes(lastHeapBytes),
+        toMegabytes(lastHeapBytes - startHeapBytes));
+  }
+
+  private void sample() {
+    String metrics;
+    try {
+      metrics = client.getMetrics();
+    } catch (IOException e) {
+      return;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    if (metrics == null) {
+      return;
+    }
+
+    // One line for each heap pool, which add up to the whole heap
+    long heapBytes = 0;
+    for (String line : metrics.split("\n")) {
+      if (line.startsWith(HEAP_USED_METRIC)) {
+        heapBytes += (long) Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+      }
+    }
+
+    lastHeapBytes = heapBytes;
+    if (startHeapBytes < 0) {
+      startHeapBytes = heapBytes;
+    }
+    if (heapBytes > peakHeapBytes) {
+      peakHeapBytes = heapBytes;
+    }
+  }
+
+  private static long toMegabytes(long bytes) {
+    return bytes / (1024 * 1024);
+  }
+}
@@ -0,0 +1,55 @@
+package uk.gov.ons.census.exceptionmanager.loadtest;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/** Latency and error counts for each endpoint, recorded from many threads at once */
+class LatencyStats {
+  private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+  void recordSuccess(String endpoint, long durationNanos) {
+    recorders
+        .computeIfAbsent(endpoint, key -> new Recorder(3))
+        .recordValue(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+  }
+
+  void recordError(String endpoint) {
+    errors.computeIfAbsent(endpoint, key -> new LongAdder()).increment();
+  }
+
+  /** Forgets everything recorded so far, so the warm-up doesn't count */
+  void reset() {
+    for (Recorder recorder : recorders.values()) {
+      recorder.reset();
+    }
+    errors.clear();
+  }
+
+  void print(PrintStream out, long elapsedNanos) {
+    double elapsedSeconds = elapsedNanos / 1e9;
+    out.printf(
+        "%-24s %10s %8s %10s %9s %9s %9s %9s%n",
+        "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+
+    for (String endpoint : recorders.keySet().stream().sorted().toList()) {
+      Histogram histogram = recorders.get(endpoint).getIntervalHistogram();
+      long errorCount = errors.containsKey(endpoint) ? errors.get(endpoint).sum() : 0;
+      out.printf(
+          "%-24s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+          endpoint,
+          histogram.getTotalCount(),
+          errorCount,
+          histogram.getTotalCount() / elapsedSeconds,
+          histogram.getValueAtPercentile(50) / 1000.0,
+          histogram.getValueAtPercentile(99) / 1000.0,
+          histogram.getValueAtPercentile(99.9) / 1000.0,
+          histogram.getMaxValue() / 1000.0);
+    }
+  }
+}
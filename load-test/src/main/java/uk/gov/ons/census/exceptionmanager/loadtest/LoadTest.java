@@ -0,0 +1,99 @@
+package uk.gov.ons.census.exceptionmanager.loadtest;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts a fleet of consumers and a few operators in front of the exception manager, and reports the
+ * throughput, latency and heap use which results. Either runs against an instance which is already
+ * up (--base-url), or starts the jar itself (--application-jar), in which case it can run once with
+ * platform threads and once with virtual threads (--virtual-threads=both) to compare.
+ */
+public final class LoadTest {
+  private LoadTest() {}
+
+  public static void main(String[] args) throws Exception {
+    LoadTestConfig config = LoadTestConfig.fromArguments(args);
+
+    if (config.applicationJar.isEmpty()) {
+      run(config, "instance at " + config.baseUrl);
+      return;
+    }
+
+    List<Boolean> threadingModes =
+        config.virtualThreads.equals("both")
+            ? List.of(false, true)
+            : List.of(Boolean.parseBoolean(config.virtualThreads));
+
+    for (boolean virtualThreads : threadingModes) {
+      ExceptionManagerClient healthClient =
+          new ExceptionManagerClient(config.baseUrl, new LatencyStats());
+      try (ApplicationProcess application =
+          ApplicationProcess.start(config, virtualThreads, healthClient)) {
+        run(config, virtualThreads ? "virtual threads" : "platform threads");
+      }
+    }
+  }
+
+  private static void run(LoadTestConfig config, String label) throws InterruptedException {
+    LatencyStats latencyStats = new LatencyStats();
+    ExceptionManagerClient client = new ExceptionManagerClient(config.baseUrl, latencyStats);
+    HeapSampler heapSampler = new HeapSampler(client);
+
+    long startTime = System.nanoTime();
+    long stormIntervalNanos = config.stormInterval.toNanos();
+    long stormDurationNanos = config.stormDuration.toNanos();
+
+    // The first storm comes one interval in, so there's a steady state to compare it against
+    Runnable[] tasks = new Runnable[config.consumers + config.operators + 1];
+    for (int i = 0; i < config.consumers; i++) {
+      tasks[i] =
+          new Consumer(
+              client,
+              config,
+              () -> {
+                long elapsedNanos = System.nanoTime() - startTime;
+                return stormIntervalNanos > 0
+                    && elapsedNanos >= stormIntervalNanos
+                    && elapsedNanos % stormIntervalNanos < stormDurationNanos;
+              },
+              i);
+    }
+    for (int i = 0; i < config.operators; i++) {
+      tasks[config.consumers + i] = new Operator(client, config, i);
+    }
+    tasks[tasks.length - 1] = heapSampler;
+
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.length);
+    for (Runnable task : tasks) {
+      executor.submit(task);
+    }
+
+    System.out.printf(
+        "Running %s: %d consumers, %d operators, %ds warm-up, %ds measured%n",
+        label,
+        config.consumers,
+        config.operators,
+        config.warmup.toSeconds(),
+        config.duration.toSeconds());
+
+    TimeUnit.NANOSECONDS.sleep(config.warmup.toNanos());
+    latencyStats.reset();
+    heapSampler.reset();
+    long measurementStartTime = System.nanoTime();
+
+    TimeUnit.NANOSECONDS.sleep(config.duration.toNanos());
+    long elapsedNanos = System.nanoTime() - measurementStartTime;
+
+    executor.shutdownNow();
+    executor.awaitTermination(60, TimeUnit.SECONDS);
+
+    System.out.println();
+    System.out.println("== " + label + " ==");
+    latencyStats.print(System.out, elapsedNanos);
+    heapSampler.print(System.out);
+    System.out.println();
+  }
+}
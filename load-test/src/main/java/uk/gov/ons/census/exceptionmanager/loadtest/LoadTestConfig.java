@@ -0,0 +1,72 @@
+package uk.gov.ons.census.exceptionmanager.loadtest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/** The shape of the load, from --name=value arguments, with defaults sized for a quick run */
+class LoadTestConfig {
+  final String baseUrl;
+  final String applicationJar;
+  final String datasourceUrl;
+  final String virtualThreads;
+  final int consumers;
+  final int operators;
+  final Duration warmup;
+  final Duration duration;
+  final int messagesPerSecond;
+  final double poisonRatio;
+  final int maxRetries;
+  final Duration retryBackoff;
+  final Duration stormInterval;
+  final Duration stormDuration;
+  final int payloadBytes;
+  final Duration operatorInterval;
+  final int skipSeenCount;
+
+  private LoadTestConfig(Map<String, String> arguments) {
+    baseUrl = take(arguments, "base-url", "http://localhost:8666");
+    applicationJar = take(arguments, "application-jar", "");
+    datasourceUrl = take(arguments, "datasource-url", "jdbc:postgresql://localhost:6432/rm");
+    virtualThreads = take(arguments, "virtual-threads", "false");
+    consumers = Integer.parseInt(take(arguments, "consumers", "50"));
+    operators = Integer.parseInt(take(arguments, "operators", "2"));
+    warmup = Duration.ofSeconds(Long.parseLong(take(arguments, "warmup", "30")));
+    duration = Duration.ofSeconds(Long.parseLong(take(arguments, "duration", "300")));
+    messagesPerSecond = Integer.parseInt(take(arguments, "messages-per-second", "20"));
+    poisonRatio = Double.parseDouble(take(arguments, "poison-ratio", "0.05"));
+    maxRetries = Integer.parseInt(take(arguments, "max-retries", "10"));
+    retryBackoff = Duration.ofMillis(Long.parseLong(take(arguments, "retry-backoff", "100")));
+    stormInterval = Duration.ofSeconds(Long.parseLong(take(arguments, "storm-interval", "120")));
+    stormDuration = Duration.ofSeconds(Long.parseLong(take(arguments, "storm-duration", "20")));
+    payloadBytes = Integer.parseInt(take(arguments, "payload-bytes", "2048"));
+    operatorInterval =
+        Duration.ofSeconds(Long.parseLong(take(arguments, "operator-interval", "5")));
+    skipSeenCount = Integer.parseInt(take(arguments, "skip-seen-count", "5"));
+
+    if (!arguments.isEmpty()) {
+      throw new IllegalArgumentException("Unknown arguments " + arguments.keySet());
+    }
+
+    if (!applicationJar.isEmpty() && !virtualThreads.matches("true|false|both")) {
+      throw new IllegalArgumentException("--virtual-threads must be true, false or both");
+    }
+  }
+
+  static LoadTestConfig fromArguments(String[] args) {
+    Map<String, String> arguments = new HashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("Arguments must look like --name=value, not " + arg);
+      }
+      arguments.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+    }
+
+    return new LoadTestConfig(arguments);
+  }
+
+  private static String take(Map<String, String> arguments, String name, String defaultValue) {
+    String value = arguments.remove(name);
+    return value == null ? defaultValue : value;
+  }
+}
@@ -0,0 +1,50 @@
+package uk.gov.ons.census.exceptionmanager.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Someone on the support rota, watching the summary and skipping the messages which keep failing, a
+ * few at a time, as they would through the support tool.
+ */
+class Operator implements Runnable {
+  private static final int SKIPS_PER_LOOK = 10;
+  private final ExceptionManagerClient client;
+  private final LoadTestConfig config;
+  private final String skippingUser;
+
+  Operator(ExceptionManagerClient client, LoadTestConfig config, int operatorNumber) {
+    this.client = client;
+    this.config = config;
+    this.skippingUser = "operator" + operatorNumber + "@example.com";
+  }
+
+  @Override
+  public void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(config.operatorInterval.toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      JsonNode summaries = client.getBadMessagesSummary(config.skipSeenCount);
+      if (summaries == null) {
+        continue;
+      }
+
+      int skipCount = 0;
+      for (JsonNode summary : summaries) {
+        if (skipCount >= SKIPS_PER_LOOK) {
+          break;
+        }
+
+        if (!summary.path("quarantined").asBoolean()) {
+          client.skipMessage(summary.path("messageHash").asText(), skippingUser);
+          skipCount++;
+        }
+      }
+    }
+  }
+}
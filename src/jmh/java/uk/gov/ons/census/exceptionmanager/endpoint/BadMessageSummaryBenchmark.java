@@ -0,0 +1,66 @@
+package uk.gov.ons.census.exceptionmanager.endpoint;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageSummary;
+import uk.gov.ons.census.exceptionmanager.persistence.BenchmarkData;
+import uk.gov.ons.census.exceptionmanager.persistence.CachingDataStore;
+
+/** The admin summary listings, which operators poll, against stores of different sizes */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BadMessageSummaryBenchmark {
+  @Param({"1000", "100000"})
+  public int distinctHashes;
+
+  private AdminEndpoint adminEndpoint;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    CachingDataStore cachingDataStore = BenchmarkData.buildDataStore(0);
+    for (int i = 0; i < distinctHashes; i++) {
+      cachingDataStore.updateStats(BenchmarkData.buildExceptionReport("message hash " + i));
+
+      // Some messages seen repeatedly, so that filtering by seen count has something to do
+      if (i % 10 == 0) {
+        cachingDataStore.updateStats(BenchmarkData.buildExceptionReport("message hash " + i));
+      }
+    }
+
+    adminEndpoint =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
+  }
+
+  @Benchmark
+  public ResponseEntity<List<BadMessageSummary>> getBadMessagesSummary() {
+    return adminEndpoint.getBadMessagesSummary(-1);
+  }
+
+  @Benchmark
+  public ResponseEntity<List<BadMessageSummary>> getBadMessagesSummaryRepeatedOnly() {
+    return adminEndpoint.getBadMessagesSummary(2);
+  }
+
+  @Benchmark
+  public ResponseEntity<List<BadMessageSummary>> getBadMessagesSummaryPage() {
+    return adminEndpoint.getBadMessagesSummaryPage(-1, 100, null, "seenCount");
+  }
+}
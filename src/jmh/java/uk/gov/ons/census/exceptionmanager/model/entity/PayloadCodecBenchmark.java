@@ -0,0 +1,82 @@
+package uk.gov.ons.census.exceptionmanager.model.entity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The cost of compressing payloads on the way into quarantine, and decompressing them again */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadCodecBenchmark {
+  private static final String CENSUS_EVENT_TEMPLATE =
+      "{\"event\":{\"type\":\"CASE_UPDATED\",\"source\":\"CASE_SERVICE\",\"channel\":\"RM\","
+          + "\"dateTime\":\"2021-03-21T10:15:30.000Z\",\"transactionId\":\"%s\"},"
+          + "\"payload\":{\"collectionCase\":{\"id\":\"%s\",\"caseRef\":\"%d\","
+          + "\"caseType\":\"HH\",\"survey\":\"CENSUS\",\"collectionExerciseId\":\"%s\","
+          + "\"address\":{\"addressLine1\":\"%d Test Street\",\"addressLine2\":\"Flat A\","
+          + "\"addressLine3\":\"\",\"townName\":\"Newport\",\"postcode\":\"NP10 8XG\","
+          + "\"region\":\"W00000000\",\"latitude\":\"51.5645\",\"longitude\":\"-3.0267\","
+          + "\"uprn\":\"%d\",\"addressType\":\"HH\",\"estabType\":\"HOUSEHOLD\"},"
+          + "\"contact\":{\"title\":null,\"forename\":null,\"surname\":null,\"telNo\":null},"
+          + "\"actionableFrom\":\"2021-03-01T00:00:00.000Z\",\"handDelivery\":false,"
+          + "\"addressInvalid\":false,\"ceExpectedCapacity\":null,\"refusalReceived\":null,"
+          + "\"receiptReceived\":false,\"metadata\":{\"secureEstablishment\":false}}}}";
+
+  // Roughly the bytes in the payload, made up of whole census events
+  @Param({"1024", "16384", "262144"})
+  public int payloadSize;
+
+  private byte[] payload;
+  private byte[] encodedPayload;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(0);
+    StringBuilder events = new StringBuilder("[");
+    while (events.length() < payloadSize) {
+      if (events.length() > 1) {
+        events.append(',');
+      }
+      events.append(
+          String.format(
+              CENSUS_EVENT_TEMPLATE,
+              new UUID(random.nextLong(), random.nextLong()),
+              new UUID(random.nextLong(), random.nextLong()),
+              1000000000L + random.nextInt(1000000),
+              new UUID(random.nextLong(), random.nextLong()),
+              random.nextInt(200),
+              10000000000L + random.nextInt(1000000)));
+    }
+    events.append(']');
+
+    payload = events.toString().getBytes(StandardCharsets.UTF_8);
+    encodedPayload = PayloadCodec.DEFLATE.encode(payload);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return PayloadCodec.DEFLATE.encode(payload);
+  }
+
+  @Benchmark
+  public byte[] decode() {
+    return PayloadCodec.DEFLATE.decode(encodedPayload);
+  }
+}
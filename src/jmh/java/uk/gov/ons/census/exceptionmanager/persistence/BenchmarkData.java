@@ -0,0 +1,48 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
+import uk.gov.ons.census.exceptionmanager.model.repository.AutoQuarantineRuleRepository;
+
+/** Builds the stores and reports the benchmarks run against */
+public final class BenchmarkData {
+  private BenchmarkData() {}
+
+  public static CachingDataStore buildDataStore(int maxSeenMessages) {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
+    return new CachingDataStore(
+        autoQuarantineRuleRepository, 1, true, 100000, false, maxSeenMessages, 0, 0);
+  }
+
+  /**
+   * Adds rules which don't match any of the reports built here, half guarded by a service check,
+   * so only evaluated against that service, and half evaluated against every report.
+   */
+  public static void addQuarantineRules(CachingDataStore cachingDataStore, int ruleCount) {
+    for (int i = 0; i < ruleCount; i++) {
+      String expression =
+          i % 2 == 0
+              ? "service == 'other service " + i + "'"
+              : "exceptionMessage.contains('poison " + i + "')";
+      cachingDataStore.addQuarantineRuleExpression(
+          expression, false, true, false, OffsetDateTime.MAX);
+    }
+  }
+
+  public static ExceptionReport buildExceptionReport(String messageHash) {
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash(messageHash);
+    exceptionReport.setService("test service " + Math.floorMod(messageHash.hashCode(), 10));
+    exceptionReport.setSubscription("test subscription");
+    exceptionReport.setExceptionClass("java.lang.RuntimeException");
+    exceptionReport.setExceptionMessage("Could not process message " + messageHash);
+    exceptionReport.setExceptionRootCause("java.lang.IllegalStateException: test root cause");
+    return exceptionReport;
+  }
+}
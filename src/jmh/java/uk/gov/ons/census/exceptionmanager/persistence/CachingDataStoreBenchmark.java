@@ -0,0 +1,154 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
+import uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule;
+
+/**
+ * The calls made for every exception report, against a store which already remembers a number of
+ * messages. The contended variants run the same calls on 2, 4 and as many threads as there are
+ * cores, to see how the store holds up under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CachingDataStoreBenchmark {
+  @Param({"0", "10", "100"})
+  public int ruleCount;
+
+  @Param({"1000", "100000"})
+  public int distinctHashes;
+
+  // Share of reports for a message we've already seen, as a retried poison message would be
+  @Param({"0.5", "0.99"})
+  public double repeatRatio;
+
+  private CachingDataStore cachingDataStore;
+  private ExceptionReport[] seenExceptionReports;
+  private ScheduledExecutorService seenMessageEvictor;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    cachingDataStore = BenchmarkData.buildDataStore(distinctHashes);
+    BenchmarkData.addQuarantineRules(cachingDataStore, ruleCount);
+
+    seenExceptionReports = new ExceptionReport[distinctHashes];
+    for (int i = 0; i < distinctHashes; i++) {
+      seenExceptionReports[i] = BenchmarkData.buildExceptionReport("seen message hash " + i);
+      cachingDataStore.updateStats(seenExceptionReports[i]);
+    }
+
+    // As the scheduled evictor would, stop new messages from growing the store without limit
+    seenMessageEvictor = Executors.newSingleThreadScheduledExecutor();
+    seenMessageEvictor.scheduleWithFixedDelay(
+        cachingDataStore::evictSeenMessages, 100, 100, TimeUnit.MILLISECONDS);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    seenMessageEvictor.shutdownNow();
+  }
+
+  @State(Scope.Thread)
+  public static class ReportSource {
+    private final SplittableRandom random = new SplittableRandom();
+    private final String newMessageHashPrefix = "new message hash " + UUID.randomUUID() + " ";
+    private long newMessageCount;
+
+    ExceptionReport next(CachingDataStoreBenchmark benchmark) {
+      if (random.nextDouble() < benchmark.repeatRatio) {
+        return benchmark.seenExceptionReports[random.nextInt(benchmark.distinctHashes)];
+      }
+
+      return BenchmarkData.buildExceptionReport(newMessageHashPrefix + newMessageCount++);
+    }
+  }
+
+  /** Everything the reporting endpoint does with a single report */
+  @Benchmark
+  public boolean reportException(ReportSource reportSource) {
+    ExceptionReport exceptionReport = reportSource.next(this);
+
+    List<AutoQuarantineRule> matchingRules = cachingDataStore.findMatchingRules(exceptionReport);
+    boolean skipIt =
+        !matchingRules.isEmpty() || cachingDataStore.shouldWeSkipThisMessage(exceptionReport);
+    boolean peek = cachingDataStore.shouldWePeekThisMessage(exceptionReport.getMessageHash());
+    boolean logIt = cachingDataStore.shouldWeLogThisMessage(exceptionReport);
+    cachingDataStore.updateStats(exceptionReport);
+
+    return skipIt ^ peek ^ logIt;
+  }
+
+  @Benchmark
+  @Threads(2)
+  public boolean reportExceptionOnTwoThreads(ReportSource reportSource) {
+    return reportException(reportSource);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean reportExceptionOnFourThreads(ReportSource reportSource) {
+    return reportException(reportSource);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean reportExceptionOnAllCores(ReportSource reportSource) {
+    return reportException(reportSource);
+  }
+
+  @Benchmark
+  public List<AutoQuarantineRule> findMatchingRules(ReportSource reportSource) {
+    return cachingDataStore.findMatchingRules(reportSource.next(this));
+  }
+
+  @Benchmark
+  public boolean shouldWeLogThisMessage(ReportSource reportSource) {
+    return cachingDataStore.shouldWeLogThisMessage(reportSource.next(this));
+  }
+
+  @Benchmark
+  public void updateStats(ReportSource reportSource) {
+    cachingDataStore.updateStats(reportSource.next(this));
+  }
+
+  @Benchmark
+  @Threads(2)
+  public void updateStatsOnTwoThreads(ReportSource reportSource) {
+    updateStats(reportSource);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void updateStatsOnFourThreads(ReportSource reportSource) {
+    updateStats(reportSource);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void updateStatsOnAllCores(ReportSource reportSource) {
+    updateStats(reportSource);
+  }
+}
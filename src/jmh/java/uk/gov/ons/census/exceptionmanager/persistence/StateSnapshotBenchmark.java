@@ -0,0 +1,93 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long a restart spends loading the state snapshot before it can carry on, how long until the
+ * exception stats are all back too, and how long a running instance spends saving it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StateSnapshotBenchmark {
+  @Param({"100000", "1000000"})
+  public int distinctHashes;
+
+  private Path snapshotDirectory;
+  private String snapshotFile;
+  private StateSnapshotStore populatedSnapshotStore;
+  private StateSnapshotStore loadedSnapshotStore;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    snapshotDirectory = Files.createTempDirectory("snapshot-benchmark");
+    snapshotFile = snapshotDirectory.resolve("snapshot.bin").toString();
+
+    CachingDataStore populatedDataStore = BenchmarkData.buildDataStore(0);
+    for (int i = 0; i < distinctHashes; i++) {
+      populatedDataStore.updateStats(BenchmarkData.buildExceptionReport("message hash " + i));
+      if (i % 100 == 0) {
+        populatedDataStore.skipMessage("message hash " + i, "test user");
+      }
+    }
+
+    // Shared, so that saves from more than one thread take turns as they would in the service
+    populatedSnapshotStore = new StateSnapshotStore(populatedDataStore, snapshotFile);
+    populatedSnapshotStore.save(0);
+  }
+
+  // Not timed, but the next load mustn't be competing with the last one's stats still restoring
+  @TearDown(Level.Iteration)
+  public void awaitStatsRestored() throws InterruptedException {
+    if (loadedSnapshotStore != null) {
+      loadedSnapshotStore.awaitStatsRestored();
+      loadedSnapshotStore = null;
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(Path.of(snapshotFile));
+    Files.deleteIfExists(Path.of(snapshotFile + ".tmp"));
+    Files.deleteIfExists(snapshotDirectory);
+  }
+
+  @Benchmark
+  public CachingDataStore load() throws IOException {
+    CachingDataStore cachingDataStore = BenchmarkData.buildDataStore(0);
+    loadedSnapshotStore = new StateSnapshotStore(cachingDataStore, snapshotFile);
+    loadedSnapshotStore.load();
+    return cachingDataStore;
+  }
+
+  @Benchmark
+  public CachingDataStore loadAndRestoreStats() throws IOException, InterruptedException {
+    CachingDataStore cachingDataStore = load();
+    awaitStatsRestored();
+    return cachingDataStore;
+  }
+
+  @Benchmark
+  public void save() throws IOException {
+    populatedSnapshotStore.save(0);
+  }
+}
@@ -1,17 +1,23 @@
 package uk.gov.ons.census.exceptionmanager.endpoint;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.transaction.Transactional;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -20,21 +26,41 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.gov.ons.census.exceptionmanager.helper.JsonHelper;
+import uk.gov.ons.census.exceptionmanager.helper.PageHelper;
 import uk.gov.ons.census.exceptionmanager.model.dto.AutoQuarantineRule;
+import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageRates;
 import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageReport;
 import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageSummary;
 import uk.gov.ons.census.exceptionmanager.model.dto.SkipMessageRequest;
 import uk.gov.ons.census.exceptionmanager.model.dto.SkippedMessage;
+import uk.gov.ons.census.exceptionmanager.model.dto.TopBadMessages;
 import uk.gov.ons.census.exceptionmanager.persistence.CachingDataStore;
+import uk.gov.ons.census.exceptionmanager.persistence.QuarantinedMessageReader;
+import uk.gov.ons.census.exceptionmanager.persistence.StateJournal;
 
 @RestController
 public class AdminEndpoint {
   private final CachingDataStore cachingDataStore;
+  private final QuarantinedMessageReader quarantinedMessageReader;
+  private final StateJournal stateJournal;
+  private final Timer peekRepliedTimer;
+  private final Timer peekTimedOutTimer;
   private final int peekTimeout;
 
   public AdminEndpoint(
-      CachingDataStore cachingDataStore, @Value("${peek.timeout}") int peekTimeout) {
+      CachingDataStore cachingDataStore,
+      QuarantinedMessageReader quarantinedMessageReader,
+      StateJournal stateJournal,
+      MeterRegistry meterRegistry,
+      @Value("${peek.timeout}") int peekTimeout) {
     this.cachingDataStore = cachingDataStore;
+    this.quarantinedMessageReader = quarantinedMessageReader;
+    this.stateJournal = stateJournal;
+    this.peekRepliedTimer = buildPeekWaitTimer(meterRegistry, "replied");
+    this.peekTimedOutTimer = buildPeekWaitTimer(meterRegistry, "timed-out");
     this.peekTimeout = peekTimeout;
   }
 
@@ -50,50 +76,120 @@ public class AdminEndpoint {
     return ResponseEntity.status(HttpStatus.OK).body(cachingDataStore.getSeenMessageCount());
   }
 
+  @GetMapping(path = "/badmessages/rates")
+  public ResponseEntity<BadMessageRates> getBadMessageRates() {
+    return ResponseEntity.status(HttpStatus.OK).body(cachingDataStore.getBadMessageRates());
+  }
+
+  @GetMapping(path = "/badmessages/top")
+  public ResponseEntity<TopBadMessages> getTopBadMessages(
+      @RequestParam(value = "limit", required = false, defaultValue = "10") int limit) {
+    if (limit < 1 || limit > cachingDataStore.getMaxTopBadMessages()) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+    }
+
+    return ResponseEntity.status(HttpStatus.OK).body(cachingDataStore.getTopBadMessages(limit));
+  }
+
   @GetMapping(path = "/badmessages/summary")
   public ResponseEntity<List<BadMessageSummary>> getBadMessagesSummary(
       @RequestParam(value = "minimumSeenCount", required = false, defaultValue = "-1")
           int minimumSeenCount) {
-    List<BadMessageSummary> badMessageSummaryList = new LinkedList<>();
-    Set<String> hashes = getSeenMessageHashes(minimumSeenCount);
+    List<BadMessageSummary> badMessageSummaryList = new ArrayList<>();
 
-    for (String messageHash : hashes) {
-      BadMessageSummary badMessageSummary = new BadMessageSummary();
-      badMessageSummary.setMessageHash(messageHash);
+    for (BadMessageSummary badMessageSummary : getBadMessageSummaries(minimumSeenCount)) {
       badMessageSummaryList.add(badMessageSummary);
-
-      Instant firstSeen = Instant.MAX;
-      Instant lastSeen = Instant.MIN;
-      int seenCount = 0;
-      Set<String> affectedServices = new HashSet<>();
-      Set<String> affectedSubscriptions = new HashSet<>();
-
-      for (BadMessageReport badMessageReport : cachingDataStore.getBadMessageReports(messageHash)) {
-        if (badMessageReport.getStats().getFirstSeen().isBefore(firstSeen)) {
-          firstSeen = badMessageReport.getStats().getFirstSeen();
-        }
-
-        if (badMessageReport.getStats().getLastSeen().isAfter(lastSeen)) {
-          lastSeen = badMessageReport.getStats().getLastSeen();
-        }
-
-        seenCount += badMessageReport.getStats().getSeenCount().get();
-
-        affectedServices.add(badMessageReport.getExceptionReport().getService());
-        affectedSubscriptions.add(badMessageReport.getExceptionReport().getSubscription());
-      }
-
-      badMessageSummary.setFirstSeen(firstSeen);
-      badMessageSummary.setLastSeen(lastSeen);
-      badMessageSummary.setSeenCount(seenCount);
-      badMessageSummary.setAffectedServices(affectedServices);
-      badMessageSummary.setAffectedSubscriptions(affectedSubscriptions);
-      badMessageSummary.setQuarantined(cachingDataStore.isQuarantined(messageHash));
     }
 
     return ResponseEntity.status(HttpStatus.OK).body(badMessageSummaryList);
   }
 
+  @GetMapping(path = "/badmessages", params = "limit")
+  public ResponseEntity<List<String>> getBadMessagesPage(
+      @RequestParam(value = "minimumSeenCount", required = false, defaultValue = "-1")
+          int minimumSeenCount,
+      @RequestParam("limit") int limit,
+      @RequestParam(value = "cursor", required = false) String cursor,
+      @RequestParam(value = "sort", required = false, defaultValue = "messageHash") String sort) {
+    ResponseEntity<List<BadMessageSummary>> summaryPage =
+        getBadMessagesSummaryPage(minimumSeenCount, limit, cursor, sort);
+
+    if (summaryPage.getBody() == null) {
+      return ResponseEntity.status(summaryPage.getStatusCode()).body(null);
+    }
+
+    List<String> hashes = new ArrayList<>(summaryPage.getBody().size());
+    for (BadMessageSummary badMessageSummary : summaryPage.getBody()) {
+      hashes.add(badMessageSummary.getMessageHash());
+    }
+
+    return ResponseEntity.status(summaryPage.getStatusCode())
+        .headers(summaryPage.getHeaders())
+        .body(hashes);
+  }
+
+  @GetMapping(path = "/badmessages/summary", params = "limit")
+  public ResponseEntity<List<BadMessageSummary>> getBadMessagesSummaryPage(
+      @RequestParam(value = "minimumSeenCount", required = false, defaultValue = "-1")
+          int minimumSeenCount,
+      @RequestParam("limit") int limit,
+      @RequestParam(value = "cursor", required = false) String cursor,
+      @RequestParam(value = "sort", required = false, defaultValue = "messageHash") String sort) {
+    Optional<BadMessageSort> badMessageSort = BadMessageSort.fromParameter(sort);
+    Optional<BadMessageSummary> afterSummary =
+        Optional.ofNullable(cursor)
+            .flatMap(PageHelper::decodeCursor)
+            .flatMap(BadMessageSort::fromCursor);
+
+    if (limit < 1
+        || limit > PageHelper.MAX_PAGE_SIZE
+        || badMessageSort.isEmpty()
+        || (cursor != null && afterSummary.isEmpty())) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+    }
+
+    List<BadMessageSummary> page =
+        PageHelper.findPage(
+            getBadMessageSummaries(minimumSeenCount),
+            badMessageSort.get().getOrder(),
+            afterSummary.orElse(null),
+            limit);
+
+    ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.OK);
+    if (page.size() == limit) {
+      response.header(
+          PageHelper.NEXT_CURSOR_HEADER,
+          PageHelper.encodeCursor(BadMessageSort.toCursor(page.get(page.size() - 1))));
+    }
+
+    return response.body(page);
+  }
+
+  @GetMapping(path = "/badmessages", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamBadMessages(
+      @RequestParam(value = "minimumSeenCount", required = false, defaultValue = "-1")
+          int minimumSeenCount,
+      @RequestParam(value = "sort", required = false) String sort) {
+    if (sort == null) {
+      return streamJsonLines(getSeenMessageHashes(minimumSeenCount));
+    }
+
+    return streamSortedBadMessageSummaries(
+        minimumSeenCount, sort, BadMessageSummary::getMessageHash);
+  }
+
+  @GetMapping(path = "/badmessages/summary", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamBadMessagesSummary(
+      @RequestParam(value = "minimumSeenCount", required = false, defaultValue = "-1")
+          int minimumSeenCount,
+      @RequestParam(value = "sort", required = false) String sort) {
+    if (sort == null) {
+      return streamJsonLines(getBadMessageSummaries(minimumSeenCount));
+    }
+
+    return streamSortedBadMessageSummaries(minimumSeenCount, sort, Function.identity());
+  }
+
   @GetMapping(path = "/badmessage/{messageHash}")
   public ResponseEntity<List<BadMessageReport>> getBadMessageDetails(
       @PathVariable("messageHash") String messageHash) {
@@ -105,43 +201,91 @@ public class AdminEndpoint {
   public void skipMessage(@RequestBody SkipMessageRequest skipMessageRequest) {
     cachingDataStore.skipMessage(
         skipMessageRequest.getMessageHash(), skipMessageRequest.getSkippingUser());
+
+    // Only answered once the skip is on disk, so it survives a crash before the next snapshot
+    stateJournal.recordSkip(
+        skipMessageRequest.getMessageHash(), skipMessageRequest.getSkippingUser());
   }
 
   @GetMapping(path = "/peekmessage/{messageHash}")
-  public ResponseEntity<String> peekMessage(@PathVariable("messageHash") String messageHash) {
-    cachingDataStore.peekMessage(messageHash);
-
-    byte[] message;
-    Instant timeOutTime = Instant.now().plus(Duration.ofMillis(peekTimeout));
-    while ((message = cachingDataStore.getPeekedMessage(messageHash)) == null) {
-      try {
-        Thread.sleep(1);
-      } catch (InterruptedException e) {
-        break; // Service must be shutting down, probably
-      }
-
-      if (Instant.now().isAfter(timeOutTime)) {
-        break;
-      }
-    }
+  public DeferredResult<ResponseEntity<String>> peekMessage(
+      @PathVariable("messageHash") String messageHash) {
+    long startTime = System.nanoTime();
 
-    if (message == null) {
-      return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
-    } else {
-      return ResponseEntity.status(HttpStatus.OK).body(new String(message));
-    }
+    // Doesn't hold a request thread while waiting; if nothing comes back in time, it's not found
+    DeferredResult<ResponseEntity<String>> result =
+        new DeferredResult<>(
+            (long) peekTimeout, ResponseEntity.status(HttpStatus.NOT_FOUND).body(null));
+    result.onTimeout(
+        () -> peekTimedOutTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS));
+
+    CompletableFuture<byte[]> peekReplyWaiter = cachingDataStore.peekMessage(messageHash);
+    stateJournal.recordPeek(messageHash);
+
+    CompletableFuture<Void> replyHandler =
+        peekReplyWaiter.thenAccept(
+            message -> {
+              if (result.setResult(
+                  ResponseEntity.status(HttpStatus.OK)
+                      .body(new String(message, StandardCharsets.UTF_8)))) {
+                peekRepliedTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+              }
+            });
+
+    // Answered, timed out or the caller's gone; either way, stop holding on to this result
+    result.onCompletion(
+        () -> {
+          replyHandler.cancel(false);
+          cachingDataStore.stopWaitingForPeek(messageHash, peekReplyWaiter);
+        });
+
+    return result;
   }
 
   @GetMapping(path = "/skippedmessages")
   public ResponseEntity<Map<String, List<SkippedMessage>>> getAllSkippedMessages() {
-    return ResponseEntity.status(HttpStatus.OK).body(cachingDataStore.getAllSkippedMessages());
+    return ResponseEntity.status(HttpStatus.OK)
+        .body(quarantinedMessageReader.findAllSkippedMessages());
+  }
+
+  @GetMapping(path = "/skippedmessages", params = "limit")
+  public ResponseEntity<Map<String, List<SkippedMessage>>> getSkippedMessagesPage(
+      @RequestParam("limit") int limit,
+      @RequestParam(value = "cursor", required = false) String cursor) {
+    Optional<String> afterMessageHash =
+        Optional.ofNullable(cursor).flatMap(PageHelper::decodeCursor);
+
+    if (limit < 1
+        || limit > PageHelper.MAX_PAGE_SIZE
+        || (cursor != null && afterMessageHash.isEmpty())) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+    }
+
+    // The database can find the page itself, in the same order as the cursor
+    List<String> page =
+        quarantinedMessageReader.findSkippedMessageHashes(afterMessageHash.orElse(null), limit);
+    Map<String, List<SkippedMessage>> result = quarantinedMessageReader.findSkippedMessages(page);
+
+    ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.OK);
+    if (page.size() == limit) {
+      response.header(
+          PageHelper.NEXT_CURSOR_HEADER, PageHelper.encodeCursor(page.get(page.size() - 1)));
+    }
+
+    return response.body(result);
+  }
+
+  @GetMapping(path = "/skippedmessages", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamSkippedMessages() {
+    // One skipped message per line, rather than grouped by hash, so they can be written one by one
+    return streamJsonLines(quarantinedMessageReader.iterateAllSkippedMessages());
   }
 
   @GetMapping(path = "/skippedmessage/{messageHash}")
   public ResponseEntity<List<SkippedMessage>> getSkippedMessage(
       @PathVariable("messageHash") String messageHash) {
     return ResponseEntity.status(HttpStatus.OK)
-        .body(cachingDataStore.getSkippedMessages(messageHash));
+        .body(quarantinedMessageReader.findSkippedMessages(messageHash));
   }
 
   @GetMapping(path = "/reset")
@@ -149,12 +293,18 @@ public class AdminEndpoint {
       @RequestParam(value = "lastSeenCutoffSeconds", required = false)
           Optional<Integer> lastSeenCutoffSeconds) {
     cachingDataStore.reset(lastSeenCutoffSeconds);
+
+    // Only a full reset drops skips and peeks; the seen messages aren't journaled anyway
+    if (lastSeenCutoffSeconds.isEmpty()) {
+      stateJournal.recordReset();
+    }
   }
 
   @GetMapping(path = "/quarantinerule")
   public ResponseEntity<List<AutoQuarantineRule>> getQuarantineRules() {
     List<uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule> quarantineRules =
         cachingDataStore.getQuarantineRules();
+    Set<UUID> compiledRuleIds = cachingDataStore.getCompiledQuarantineRuleIds();
     List<AutoQuarantineRule> result =
         quarantineRules.stream()
             .map(
@@ -165,6 +315,7 @@ public class AdminEndpoint {
                   mappedRule.setSuppressLogging(rule.isSuppressLogging());
                   mappedRule.setThrowAway(rule.isThrowAway());
                   mappedRule.setRuleExpiryDateTime(rule.getRuleExpiryDateTime());
+                  mappedRule.setCompiled(compiledRuleIds.contains(rule.getId()));
                   return mappedRule;
                 })
             .collect(Collectors.toList());
@@ -188,6 +339,59 @@ public class AdminEndpoint {
     cachingDataStore.deleteQuarantineRule(id);
   }
 
+  private Iterable<BadMessageSummary> getBadMessageSummaries(int minimumSeenCount) {
+    Set<String> hashes = getSeenMessageHashes(minimumSeenCount);
+
+    // Built as they're needed, so that a page or a stream doesn't hold every summary at once
+    return () ->
+        hashes.stream()
+            .map(
+                messageHash -> {
+                  BadMessageSummary badMessageSummary =
+                      cachingDataStore.getBadMessageSummary(messageHash);
+
+                  // The message might have been evicted since we got the hashes
+                  if (badMessageSummary != null) {
+                    badMessageSummary.setQuarantined(cachingDataStore.isQuarantined(messageHash));
+                  }
+
+                  return badMessageSummary;
+                })
+            .filter(Objects::nonNull)
+            .iterator();
+  }
+
+  private <T> ResponseEntity<StreamingResponseBody> streamSortedBadMessageSummaries(
+      int minimumSeenCount, String sort, Function<BadMessageSummary, T> mapper) {
+    Optional<BadMessageSort> badMessageSort = BadMessageSort.fromParameter(sort);
+
+    if (badMessageSort.isEmpty()) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+    }
+
+    // Sorting needs every summary, but they're still written out one line at a time
+    List<BadMessageSummary> badMessageSummaries = new ArrayList<>();
+    getBadMessageSummaries(minimumSeenCount).forEach(badMessageSummaries::add);
+    badMessageSummaries.sort(badMessageSort.get().getOrder());
+
+    return streamJsonLines(() -> badMessageSummaries.stream().map(mapper).iterator());
+  }
+
+  private <T> ResponseEntity<StreamingResponseBody> streamJsonLines(Iterable<T> items) {
+    StreamingResponseBody body =
+        outputStream -> {
+          for (T item : items) {
+            outputStream.write(
+                JsonHelper.convertObjectToJson(item).getBytes(StandardCharsets.UTF_8));
+            outputStream.write('\n');
+          }
+        };
+
+    return ResponseEntity.status(HttpStatus.OK)
+        .contentType(MediaType.APPLICATION_NDJSON)
+        .body(body);
+  }
+
   private Set<String> getSeenMessageHashes(int minimumSeenCount) {
     Set<String> hashes;
 
@@ -200,4 +404,11 @@ public class AdminEndpoint {
 
     return hashes;
   }
+
+  private static Timer buildPeekWaitTimer(MeterRegistry meterRegistry, String outcome) {
+    return Timer.builder("exceptionmanager.peek.wait")
+        .tag("outcome", outcome)
+        .description("Time from asking to peek at a message until it came back or we gave up")
+        .register(meterRegistry);
+  }
 }
@@ -0,0 +1,84 @@
+package uk.gov.ons.census.exceptionmanager.endpoint;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Optional;
+import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageSummary;
+
+enum BadMessageSort {
+  MESSAGE_HASH("messageHash") {
+    @Override
+    Comparator<BadMessageSummary> getOrder() {
+      return BY_MESSAGE_HASH;
+    }
+  },
+  LAST_SEEN_DESCENDING("lastSeen") {
+    @Override
+    Comparator<BadMessageSummary> getOrder() {
+      return BY_LAST_SEEN_DESCENDING;
+    }
+  },
+  SEEN_COUNT_DESCENDING("seenCount") {
+    @Override
+    Comparator<BadMessageSummary> getOrder() {
+      return BY_SEEN_COUNT_DESCENDING;
+    }
+  };
+
+  private static final String CURSOR_SEPARATOR = "|";
+  private static final Comparator<BadMessageSummary> BY_MESSAGE_HASH =
+      Comparator.comparing(BadMessageSummary::getMessageHash);
+  private static final Comparator<BadMessageSummary> BY_LAST_SEEN_DESCENDING =
+      Comparator.comparing(BadMessageSummary::getLastSeen)
+          .reversed()
+          .thenComparing(BY_MESSAGE_HASH);
+  private static final Comparator<BadMessageSummary> BY_SEEN_COUNT_DESCENDING =
+      Comparator.comparingInt(BadMessageSummary::getSeenCount)
+          .reversed()
+          .thenComparing(BY_MESSAGE_HASH);
+
+  private final String parameterValue;
+
+  BadMessageSort(String parameterValue) {
+    this.parameterValue = parameterValue;
+  }
+
+  static Optional<BadMessageSort> fromParameter(String parameterValue) {
+    for (BadMessageSort sort : values()) {
+      if (sort.parameterValue.equals(parameterValue)) {
+        return Optional.of(sort);
+      }
+    }
+
+    return Optional.empty();
+  }
+
+  abstract Comparator<BadMessageSummary> getOrder();
+
+  /** The cursor holds everything any of the orders need, so it's only the last summary's keys */
+  static String toCursor(BadMessageSummary badMessageSummary) {
+    return String.join(
+        CURSOR_SEPARATOR,
+        badMessageSummary.getLastSeen().toString(),
+        Integer.toString(badMessageSummary.getSeenCount()),
+        badMessageSummary.getMessageHash());
+  }
+
+  static Optional<BadMessageSummary> fromCursor(String cursor) {
+    String[] cursorParts = cursor.split("\\" + CURSOR_SEPARATOR, 3);
+    if (cursorParts.length != 3) {
+      return Optional.empty();
+    }
+
+    try {
+      BadMessageSummary badMessageSummary = new BadMessageSummary();
+      badMessageSummary.setLastSeen(Instant.parse(cursorParts[0]));
+      badMessageSummary.setSeenCount(Integer.parseInt(cursorParts[1]));
+      badMessageSummary.setMessageHash(cursorParts[2]);
+      return Optional.of(badMessageSummary);
+    } catch (DateTimeException | NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+}
@@ -1,8 +1,16 @@
 package uk.gov.ons.census.exceptionmanager.endpoint;
 
-import jakarta.transaction.Transactional;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -15,52 +23,70 @@ import uk.gov.ons.census.exceptionmanager.model.dto.Response;
 import uk.gov.ons.census.exceptionmanager.model.dto.SkippedMessage;
 import uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule;
 import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessage;
-import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessageRepository;
 import uk.gov.ons.census.exceptionmanager.persistence.CachingDataStore;
+import uk.gov.ons.census.exceptionmanager.persistence.QuarantinedMessageWriter;
 
 @RestController
 public class ReportingEndpoint {
   private final CachingDataStore cachingDataStore;
-  private final QuarantinedMessageRepository quarantinedMessageRepository;
+  private final QuarantinedMessageWriter quarantinedMessageWriter;
+  // Built once up front, so that timing a report is just a clock read and an add per phase
+  private final Timer ruleEvaluationTimer;
+  private final Timer decisionTimer;
+  private final Timer statsUpdateTimer;
 
   public ReportingEndpoint(
       CachingDataStore cachingDataStore,
-      QuarantinedMessageRepository quarantinedMessageRepository) {
+      QuarantinedMessageWriter quarantinedMessageWriter,
+      MeterRegistry meterRegistry) {
     this.cachingDataStore = cachingDataStore;
-    this.quarantinedMessageRepository = quarantinedMessageRepository;
+    this.quarantinedMessageWriter = quarantinedMessageWriter;
+    this.ruleEvaluationTimer = buildPhaseTimer(meterRegistry, "rule-evaluation");
+    this.decisionTimer = buildPhaseTimer(meterRegistry, "decision");
+    this.statsUpdateTimer = buildPhaseTimer(meterRegistry, "stats-update");
   }
 
   @PostMapping(path = "/reportexception")
   public ResponseEntity<Response> reportError(@RequestBody ExceptionReport exceptionReport) {
-    Response result = new Response();
-    String messageHash = exceptionReport.getMessageHash();
-
-    boolean forceSkip = false;
-    boolean shouldLog = true;
+    long startTime = System.nanoTime();
     List<AutoQuarantineRule> matchingRules = cachingDataStore.findMatchingRules(exceptionReport);
-    for (AutoQuarantineRule rule : matchingRules) {
-      if (rule.isThrowAway()) {
-        forceSkip = true;
-        shouldLog = false;
-        result.setThrowAway(true); // Don't log, don't quarantine... completely silent
-      }
+    long rulesEvaluatedTime = System.nanoTime();
+    Response result = buildResponse(exceptionReport, matchingRules, true);
+    long decidedTime = System.nanoTime();
 
-      if (rule.isSuppressLogging()) {
-        shouldLog = false;
-      }
+    cachingDataStore.updateStats(exceptionReport);
 
-      if (rule.isQuarantine()) {
-        forceSkip = true;
-      }
+    recordPhases(startTime, rulesEvaluatedTime, decidedTime);
+    return ResponseEntity.status(HttpStatus.OK).body(result);
+  }
+
+  @PostMapping(path = "/reportexceptions")
+  public ResponseEntity<List<Response>> reportErrors(
+      @RequestBody List<ExceptionReport> exceptionReports) {
+    // A null in the batch is the caller's mistake, so say so rather than fail on it with a 500
+    if (exceptionReports.stream().anyMatch(Objects::isNull)) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
     }
 
-    result.setSkipIt(forceSkip || cachingDataStore.shouldWeSkipThisMessage(exceptionReport));
-    result.setPeek(cachingDataStore.shouldWePeekThisMessage(messageHash));
-    result.setLogIt(shouldLog && cachingDataStore.shouldWeLogThisMessage(exceptionReport));
+    long startTime = System.nanoTime();
+    Map<ExceptionReport, List<AutoQuarantineRule>> matchingRulesByReport =
+        cachingDataStore.findMatchingRules(exceptionReports);
+    long rulesEvaluatedTime = System.nanoTime();
 
-    cachingDataStore.updateStats(exceptionReport);
+    List<Response> results = new ArrayList<>(exceptionReports.size());
+    Set<ExceptionReport> exceptionReportsInBatch = new HashSet<>();
+    for (ExceptionReport exceptionReport : exceptionReports) {
+      // A repeat within the same batch is just a retry, so only the first one is allowed to log
+      boolean firstInBatch = exceptionReportsInBatch.add(exceptionReport);
+      results.add(
+          buildResponse(exceptionReport, matchingRulesByReport.get(exceptionReport), firstInBatch));
+    }
+    long decidedTime = System.nanoTime();
 
-    return ResponseEntity.status(HttpStatus.OK).body(result);
+    cachingDataStore.updateStats(exceptionReports);
+
+    recordPhases(startTime, rulesEvaluatedTime, decidedTime);
+    return ResponseEntity.status(HttpStatus.OK).body(results);
   }
 
   @PostMapping(path = "/peekreply")
@@ -68,10 +94,8 @@ public class ReportingEndpoint {
     cachingDataStore.storePeekMessageReply(peekReply);
   }
 
-  @Transactional
   @PostMapping(path = "/storeskippedmessage")
-  public void storeSkippedMessage(@RequestBody SkippedMessage skippedMessage) {
-    cachingDataStore.storeSkippedMessage(skippedMessage);
+  public CompletableFuture<Void> storeSkippedMessage(@RequestBody SkippedMessage skippedMessage) {
     String errorReports =
         JsonHelper.convertObjectToJson(
             cachingDataStore.getBadMessageReports(skippedMessage.getMessageHash()));
@@ -84,13 +108,61 @@ public class ReportingEndpoint {
     quarantinedMessage.setContentType(skippedMessage.getContentType());
     quarantinedMessage.setHeaders(skippedMessage.getHeaders());
     quarantinedMessage.setMessageHash(skippedMessage.getMessageHash());
-    quarantinedMessage.setMessagePayload(skippedMessage.getMessagePayload());
     quarantinedMessage.setSubscription(skippedMessage.getSubscription());
     quarantinedMessage.setRoutingKey(skippedMessage.getRoutingKey());
     quarantinedMessage.setService(skippedMessage.getService());
     quarantinedMessage.setErrorReports(errorReports);
     quarantinedMessage.setSkippingUser(originatingUserOfSkipRequest);
 
-    quarantinedMessageRepository.save(quarantinedMessage);
+    // Only respond once the message is safely written, so the caller knows it can drop it, and only
+    // then count the message as skipped, so a failed write doesn't leave it marked as skipped
+    return quarantinedMessageWriter
+        .write(quarantinedMessage, skippedMessage.getMessagePayload())
+        .thenRun(() -> cachingDataStore.storeSkippedMessage(skippedMessage));
+  }
+
+  private void recordPhases(long startTime, long rulesEvaluatedTime, long decidedTime) {
+    ruleEvaluationTimer.record(rulesEvaluatedTime - startTime, TimeUnit.NANOSECONDS);
+    decisionTimer.record(decidedTime - rulesEvaluatedTime, TimeUnit.NANOSECONDS);
+    statsUpdateTimer.record(System.nanoTime() - decidedTime, TimeUnit.NANOSECONDS);
+  }
+
+  private static Timer buildPhaseTimer(MeterRegistry meterRegistry, String phase) {
+    return Timer.builder("exceptionmanager.report.phase")
+        .tag("phase", phase)
+        .description("Time spent in each phase of handling exception reports")
+        .register(meterRegistry);
+  }
+
+  private Response buildResponse(
+      ExceptionReport exceptionReport,
+      List<AutoQuarantineRule> matchingRules,
+      boolean loggingAllowed) {
+    Response result = new Response();
+    String messageHash = exceptionReport.getMessageHash();
+
+    boolean forceSkip = false;
+    boolean shouldLog = loggingAllowed;
+    for (AutoQuarantineRule rule : matchingRules) {
+      if (rule.isThrowAway()) {
+        forceSkip = true;
+        shouldLog = false;
+        result.setThrowAway(true); // Don't log, don't quarantine... completely silent
+      }
+
+      if (rule.isSuppressLogging()) {
+        shouldLog = false;
+      }
+
+      if (rule.isQuarantine()) {
+        forceSkip = true;
+      }
+    }
+
+    result.setSkipIt(forceSkip || cachingDataStore.shouldWeSkipThisMessage(exceptionReport));
+    result.setPeek(cachingDataStore.shouldWePeekThisMessage(messageHash));
+    result.setLogIt(shouldLog && cachingDataStore.shouldWeLogThisMessage(exceptionReport));
+
+    return result;
   }
 }
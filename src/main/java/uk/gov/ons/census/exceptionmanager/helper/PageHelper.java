@@ -0,0 +1,56 @@
+package uk.gov.ons.census.exceptionmanager.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+public class PageHelper {
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  // Callers should reject anything bigger, as a page is held in memory while it's found
+  public static final int MAX_PAGE_SIZE = 10000;
+
+  /**
+   * Finds the first items in the given order which come after the cursor item, keeping no more than
+   * a page of items in memory however many there are to look through.
+   */
+  public static <T> List<T> findPage(
+      Iterable<T> items, Comparator<T> order, T afterItem, int limit) {
+    // Reversed, so the head is the item which drops off the end of the page when it's full
+    // Sized for no more than the biggest page, whatever the limit, so that it can't overflow
+    PriorityQueue<T> page =
+        new PriorityQueue<>(Math.min(limit, MAX_PAGE_SIZE) + 1, order.reversed());
+
+    for (T item : items) {
+      if (afterItem != null && order.compare(item, afterItem) <= 0) {
+        continue;
+      }
+
+      page.add(item);
+      if (page.size() > limit) {
+        page.poll();
+      }
+    }
+
+    List<T> result = new ArrayList<>(page);
+    result.sort(order);
+    return result;
+  }
+
+  public static String encodeCursor(String cursor) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static Optional<String> decodeCursor(String cursor) {
+    try {
+      return Optional.of(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty(); // Not one of ours
+    }
+  }
+}
@@ -10,4 +10,5 @@ public class AutoQuarantineRule {
   private boolean quarantine;
   private boolean throwAway;
   private OffsetDateTime ruleExpiryDateTime;
+  private boolean compiled; // Read only: whether the rule is running as compiled bytecode
 }
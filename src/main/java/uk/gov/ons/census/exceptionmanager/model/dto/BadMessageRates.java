@@ -0,0 +1,10 @@
+package uk.gov.ons.census.exceptionmanager.model.dto;
+
+import java.util.Map;
+import lombok.Data;
+
+@Data
+public class BadMessageRates {
+  private Map<String, ExceptionRates> services;
+  private Map<String, ExceptionRates> subscriptions;
+}
@@ -6,4 +6,5 @@ import lombok.Data;
 public class BadMessageReport {
   private ExceptionReport exceptionReport;
   private ExceptionStats stats;
+  private ExceptionRates rates;
 }
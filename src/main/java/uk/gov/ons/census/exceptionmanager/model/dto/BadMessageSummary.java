@@ -13,4 +13,5 @@ public class BadMessageSummary {
   private Set<String> affectedServices;
   private Set<String> affectedSubscriptions;
   private boolean quarantined;
+  private ExceptionRates rates;
 }
@@ -0,0 +1,11 @@
+package uk.gov.ons.census.exceptionmanager.model.dto;
+
+import lombok.Data;
+
+@Data
+public class ExceptionRates {
+  private double perSecond;
+  private int lastMinute;
+  private int lastFiveMinutes;
+  private int lastHour;
+}
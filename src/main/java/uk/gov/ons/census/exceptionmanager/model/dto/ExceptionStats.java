@@ -1,13 +1,22 @@
 package uk.gov.ons.census.exceptionmanager.model.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.Instant;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 @Data
 public class ExceptionStats {
   private Instant firstSeen = Instant.now();
-  private Instant lastSeen = Instant.now();
+  private volatile Instant lastSeen = Instant.now();
   private AtomicInteger seenCount = new AtomicInteger(1);
   private boolean loggedAtLeastOnce = false;
+
+  // Only made on the first repeat sighting, so that a report seen once doesn't pay for one. It's
+  // reported as ExceptionRates alongside the stats, rather than as the raw buckets
+  @JsonIgnore @EqualsAndHashCode.Exclude @ToString.Exclude
+  private final AtomicReference<RateCounter> rateCounter = new AtomicReference<>();
 }
@@ -0,0 +1,9 @@
+package uk.gov.ons.census.exceptionmanager.model.dto;
+
+import lombok.Data;
+
+@Data
+public class HeavyHitter {
+  private String key;
+  private long seenCount;
+}
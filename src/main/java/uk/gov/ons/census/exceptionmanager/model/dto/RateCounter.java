@@ -0,0 +1,171 @@
+package uk.gov.ons.census.exceptionmanager.model.dto;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How often something has been seen recently, in fine buckets over the last five minutes and coarse
+ * buckets over the last hour, so that a message being retried right now can be told apart from one
+ * which ran up its seen count yesterday.
+ *
+ * <p>Both are ring buffers, so the memory used is fixed however much is counted. Each slot packs
+ * the bucket it's counting along with the count itself, so a slot left over from a lap ago is
+ * spotted and started again, without a sweeper and without a lock. Windows are counted in whole
+ * buckets, including the one in progress, so they're only as exact as the buckets are fine.
+ */
+public class RateCounter {
+  private static final int ONE_MINUTE = 60;
+  private static final int FIVE_MINUTES = 300;
+  private static final int ONE_HOUR = 3600;
+  private static final int TEN_SECONDS = 10;
+  // Whole buckets only, so that the rate isn't skewed by how far into this bucket we are
+  private static final int PER_SECOND_WINDOW = 10;
+  private static final int COUNT_BITS = 24;
+  private static final long MAX_COUNT = (1L << COUNT_BITS) - 1;
+  private final int fineBucketSeconds;
+  private final int coarseBucketSeconds;
+  private final AtomicLongArray fineBuckets;
+  private final AtomicLongArray coarseBuckets;
+
+  private RateCounter(int fineBucketSeconds, int coarseBucketSeconds) {
+    this.fineBucketSeconds = fineBucketSeconds;
+    this.coarseBucketSeconds = coarseBucketSeconds;
+    fineBuckets = new AtomicLongArray(FIVE_MINUTES / fineBucketSeconds);
+    coarseBuckets = new AtomicLongArray(ONE_HOUR / coarseBucketSeconds);
+  }
+
+  /**
+   * Per-second buckets over five minutes and per-minute buckets over the hour, about 3 KB, for
+   * things there are only a few of, like services.
+   */
+  public static RateCounter perSecond() {
+    return new RateCounter(1, ONE_MINUTE);
+  }
+
+  /**
+   * Ten-second buckets over five minutes and five-minute buckets over the hour, about 400 bytes,
+   * for things there can be millions of, like exception reports.
+   */
+  public static RateCounter perTenSeconds() {
+    return new RateCounter(TEN_SECONDS, FIVE_MINUTES);
+  }
+
+  /**
+   * Adds the rates a per-ten-seconds counter would give for a single sighting, without making one,
+   * for reports which haven't been seen again
+   */
+  public static void addSingleSighting(ExceptionRates exceptionRates, Instant seen, Instant now) {
+    addTo(
+        exceptionRates,
+        now,
+        TEN_SECONDS,
+        (seconds, end) -> isInWindow(seen, end, seconds, TEN_SECONDS) ? 1 : 0,
+        (seconds, end) -> isInWindow(seen, end, seconds, FIVE_MINUTES) ? 1 : 0);
+  }
+
+  public void record(Instant seen) {
+    long second = seen.getEpochSecond();
+    increment(fineBuckets, Math.floorDiv(second, fineBucketSeconds));
+    increment(coarseBuckets, Math.floorDiv(second, coarseBucketSeconds));
+  }
+
+  public ExceptionRates toExceptionRates(Instant now) {
+    ExceptionRates exceptionRates = new ExceptionRates();
+    addTo(exceptionRates, now);
+    return exceptionRates;
+  }
+
+  /** Adds these counts onto rates which other counters have already been added to */
+  public void addTo(ExceptionRates exceptionRates, Instant now) {
+    addTo(
+        exceptionRates,
+        now,
+        fineBucketSeconds,
+        (seconds, end) -> count(fineBuckets, fineBucketSeconds, seconds, end),
+        (seconds, end) -> count(coarseBuckets, coarseBucketSeconds, seconds, end));
+  }
+
+  private static void addTo(
+      ExceptionRates exceptionRates,
+      Instant now,
+      int fineBucketSeconds,
+      WindowCount fineCount,
+      WindowCount coarseCount) {
+    int lastWholeSeconds = fineCount.count(PER_SECOND_WINDOW, now.minusSeconds(fineBucketSeconds));
+
+    exceptionRates.setPerSecond(
+        exceptionRates.getPerSecond() + (double) lastWholeSeconds / PER_SECOND_WINDOW);
+    exceptionRates.setLastMinute(exceptionRates.getLastMinute() + fineCount.count(ONE_MINUTE, now));
+    exceptionRates.setLastFiveMinutes(
+        exceptionRates.getLastFiveMinutes() + fineCount.count(FIVE_MINUTES, now));
+    exceptionRates.setLastHour(exceptionRates.getLastHour() + coarseCount.count(ONE_HOUR, now));
+  }
+
+  private static void increment(AtomicLongArray buckets, long period) {
+    int index = (int) Math.floorMod(period, (long) buckets.length());
+
+    while (true) {
+      long slot = buckets.get(index);
+      long updatedSlot;
+
+      if (getPeriod(slot) == period) {
+        if (getCount(slot) == MAX_COUNT) {
+          return;
+        }
+        updatedSlot = slot + 1;
+      } else if (getPeriod(slot) > period) {
+        // A sighting which was held up until the slot had already moved on; too late to count
+        return;
+      } else {
+        updatedSlot = pack(period, 1);
+      }
+
+      if (buckets.compareAndSet(index, slot, updatedSlot)) {
+        return;
+      }
+    }
+  }
+
+  /** Seen in the buckets covering the given number of seconds, up to the one holding the end */
+  private static int count(AtomicLongArray buckets, int bucketSeconds, int seconds, Instant end) {
+    long lastPeriod = Math.floorDiv(end.getEpochSecond(), bucketSeconds);
+    long total = 0;
+
+    for (long period = lastPeriod - getPeriods(seconds, bucketSeconds) + 1;
+        period <= lastPeriod;
+        period++) {
+      long slot = buckets.get((int) Math.floorMod(period, (long) buckets.length()));
+      if (getPeriod(slot) == period) {
+        total += getCount(slot);
+      }
+    }
+
+    return (int) Math.min(total, Integer.MAX_VALUE);
+  }
+
+  private static boolean isInWindow(Instant seen, Instant end, int seconds, int bucketSeconds) {
+    long seenPeriod = Math.floorDiv(seen.getEpochSecond(), bucketSeconds);
+    long lastPeriod = Math.floorDiv(end.getEpochSecond(), bucketSeconds);
+    return seenPeriod <= lastPeriod && seenPeriod > lastPeriod - getPeriods(seconds, bucketSeconds);
+  }
+
+  private static int getPeriods(int seconds, int bucketSeconds) {
+    return Math.max(1, seconds / bucketSeconds);
+  }
+
+  private static long pack(long period, long count) {
+    return period << COUNT_BITS | count;
+  }
+
+  private static long getPeriod(long slot) {
+    return slot >>> COUNT_BITS;
+  }
+
+  private static long getCount(long slot) {
+    return slot & MAX_COUNT;
+  }
+
+  private interface WindowCount {
+    int count(int seconds, Instant end);
+  }
+}
@@ -0,0 +1,12 @@
+package uk.gov.ons.census.exceptionmanager.model.dto;
+
+import java.util.List;
+import lombok.Data;
+
+@Data
+public class TopBadMessages {
+  private List<HeavyHitter> messageHashes;
+  private List<HeavyHitter> services;
+  private List<HeavyHitter> subscriptions;
+  private List<HeavyHitter> exceptionClasses;
+}
@@ -0,0 +1,88 @@
+package uk.gov.ons.census.exceptionmanager.model.entity;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** How a quarantined message payload is encoded in the database */
+public enum PayloadCodec {
+  NONE {
+    @Override
+    public byte[] encode(byte[] payload) {
+      return payload;
+    }
+
+    @Override
+    public byte[] decode(byte[] storedPayload) {
+      return storedPayload;
+    }
+  },
+
+  DEFLATE {
+    @Override
+    public byte[] encode(byte[] payload) {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+      try {
+        deflater.setInput(payload);
+        deflater.finish();
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(payload.length / 4 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+          encoded.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return encoded.toByteArray();
+      } finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    public byte[] decode(byte[] storedPayload) {
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(storedPayload);
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(storedPayload.length * 4);
+        byte[] buffer = new byte[8192];
+        while (!inflater.finished()) {
+          int length = inflater.inflate(buffer);
+          if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            throw new IllegalStateException("Truncated compressed payload");
+          }
+          decoded.write(buffer, 0, length);
+        }
+        return decoded.toByteArray();
+      } catch (DataFormatException e) {
+        throw new IllegalStateException("Corrupt compressed payload", e);
+      } finally {
+        inflater.end();
+      }
+    }
+  };
+
+  public abstract byte[] encode(byte[] payload);
+
+  public abstract byte[] decode(byte[] storedPayload);
+
+  /**
+   * Only text is worth compressing. Binary payloads are usually compressed already, so squeezing
+   * them again just costs CPU. A missing content type is treated as text, because that's what our
+   * services send.
+   */
+  public static PayloadCodec choose(String contentType, int payloadLength, int threshold) {
+    if (threshold <= 0 || payloadLength < threshold) {
+      return NONE;
+    }
+
+    if (contentType == null
+        || contentType.startsWith("text/")
+        || contentType.contains("json")
+        || contentType.contains("xml")) {
+      return DEFLATE;
+    }
+
+    return NONE;
+  }
+}
@@ -4,12 +4,18 @@ import com.fasterxml.jackson.databind.JsonNode;
 import io.hypersistence.utils.hibernate.type.json.JsonBinaryType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
 import java.time.OffsetDateTime;
 import java.util.Map;
 import java.util.UUID;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.annotations.Type;
@@ -17,6 +23,7 @@ import org.hibernate.type.SqlTypes;
 
 @Data
 @Entity
+@Table(indexes = @Index(columnList = "messageHash"))
 public class QuarantinedMessage {
   @Id private UUID id;
 
@@ -26,11 +33,18 @@ public class QuarantinedMessage {
 
   @Column private String messageHash;
 
+  // The payload is in QuarantinedMessagePayload, under the message hash. Only rows written before
+  // payloads were stored separately have their own copy here
   @Lob
   @JdbcTypeCode(SqlTypes.VARBINARY)
   @Column
+  @Getter(AccessLevel.NONE)
   private byte[] messagePayload;
 
+  @Enumerated(EnumType.STRING)
+  @Column
+  private PayloadCodec payloadCodec;
+
   @Column private String service;
 
   @Column private String subscription;
@@ -48,4 +62,11 @@ public class QuarantinedMessage {
   @Type(JsonBinaryType.class)
   @Column(columnDefinition = "jsonb")
   private String errorReports;
+
+  /** The payload as the service sent it, decompressed on each call if it's stored compressed */
+  public byte[] getMessagePayload() {
+    PayloadCodec codec =
+        payloadCodec == null || messagePayload == null ? PayloadCodec.NONE : payloadCodec;
+    return codec.decode(messagePayload);
+  }
 }
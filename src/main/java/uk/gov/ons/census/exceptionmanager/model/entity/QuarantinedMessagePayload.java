@@ -0,0 +1,47 @@
+package uk.gov.ons.census.exceptionmanager.model.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import java.time.OffsetDateTime;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.Getter;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+/**
+ * The payload of a quarantined message, stored once however many times the message is quarantined.
+ * Message hashes are hashes of the payload, so the hash is all a {@link QuarantinedMessage} needs
+ * to find it.
+ */
+@Data
+@Entity
+public class QuarantinedMessagePayload {
+  @Id private String messageHash;
+
+  @Lob
+  @JdbcTypeCode(SqlTypes.VARBINARY)
+  @Column
+  @Getter(AccessLevel.NONE)
+  private byte[] messagePayload;
+
+  @Enumerated(EnumType.STRING)
+  @Column
+  private PayloadCodec payloadCodec;
+
+  // Orphaned payloads are only deleted once they haven't been referenced for a while, so that one
+  // being quarantined again at the same moment isn't deleted from under it
+  @Column(columnDefinition = "timestamp with time zone")
+  private OffsetDateTime lastReferenced;
+
+  /** The payload as the service sent it, decompressed on each call if it's stored compressed */
+  public byte[] getMessagePayload() {
+    PayloadCodec codec =
+        payloadCodec == null || messagePayload == null ? PayloadCodec.NONE : payloadCodec;
+    return codec.decode(messagePayload);
+  }
+}
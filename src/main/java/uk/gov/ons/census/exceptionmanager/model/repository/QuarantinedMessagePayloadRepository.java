@@ -0,0 +1,38 @@
+package uk.gov.ons.census.exceptionmanager.model.repository;
+
+import java.time.OffsetDateTime;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessagePayload;
+
+public interface QuarantinedMessagePayloadRepository
+    extends JpaRepository<QuarantinedMessagePayload, String> {
+
+  /** Stores the payload unless it's already stored, in which case it's only marked as referenced */
+  @Modifying
+  @Query(
+      value =
+          "INSERT INTO exceptionmanager.quarantined_message_payload"
+              + " (message_hash, message_payload, payload_codec, last_referenced)"
+              + " VALUES (:messageHash, :messagePayload, :payloadCodec, now())"
+              + " ON CONFLICT (message_hash) DO UPDATE SET last_referenced = now()",
+      nativeQuery = true)
+  void storeIfAbsent(
+      @Param("messageHash") String messageHash,
+      @Param("messagePayload") byte[] messagePayload,
+      @Param("payloadCodec") String payloadCodec);
+
+  @Transactional
+  @Modifying
+  @Query(
+      value =
+          "DELETE FROM exceptionmanager.quarantined_message_payload p"
+              + " WHERE p.last_referenced < :cutoff AND NOT EXISTS"
+              + " (SELECT 1 FROM exceptionmanager.quarantined_message q"
+              + " WHERE q.message_hash = p.message_hash)",
+      nativeQuery = true)
+  int deleteUnreferencedPayloads(@Param("cutoff") OffsetDateTime cutoff);
+}
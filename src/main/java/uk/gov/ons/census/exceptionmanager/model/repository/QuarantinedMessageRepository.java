@@ -1,7 +1,21 @@
 package uk.gov.ons.census.exceptionmanager.model.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessage;
 
-public interface QuarantinedMessageRepository extends JpaRepository<QuarantinedMessage, UUID> {}
+public interface QuarantinedMessageRepository extends JpaRepository<QuarantinedMessage, UUID> {
+  @Query(
+      "SELECT DISTINCT q.messageHash FROM QuarantinedMessage q"
+          + " WHERE q.messageHash > :afterMessageHash ORDER BY q.messageHash")
+  List<String> findMessageHashesAfter(
+      @Param("afterMessageHash") String afterMessageHash, Limit limit);
+
+  List<QuarantinedMessage> findByMessageHashInOrderBySkippedTimestamp(
+      Collection<String> messageHashes);
+}
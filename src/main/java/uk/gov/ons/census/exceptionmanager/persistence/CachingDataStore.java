@@ -1,72 +1,208 @@
 package uk.gov.ons.census.exceptionmanager.persistence;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.io.IOException;
+import java.time.Clock;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToDoubleFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.expression.EvaluationContext;
-import org.springframework.expression.Expression;
-import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpression;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.stereotype.Component;
+import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageRates;
 import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageReport;
+import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageSummary;
+import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionRates;
 import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
 import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionStats;
 import uk.gov.ons.census.exceptionmanager.model.dto.Peek;
+import uk.gov.ons.census.exceptionmanager.model.dto.RateCounter;
 import uk.gov.ons.census.exceptionmanager.model.dto.SkippedMessage;
+import uk.gov.ons.census.exceptionmanager.model.dto.TopBadMessages;
 import uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule;
 import uk.gov.ons.census.exceptionmanager.model.repository.AutoQuarantineRuleRepository;
 
 @Component
-public class CachingDataStore {
+public class CachingDataStore implements MeterBinder {
   private static final Logger log = LoggerFactory.getLogger(CachingDataStore.class);
+  private static final long LAST_SEEN_BUCKET_SECONDS = 10;
+  // Bump the last byte whenever the snapshot format changes, so old snapshots are ignored
+  private static final int SNAPSHOT_FORMAT = 0x454D5303;
+  // Restored reports are added a batch at a time, so that eviction isn't held up for long
+  private static final int SNAPSHOT_RESTORE_BATCH_SIZE = 1000;
   private Map<ExceptionReport, ExceptionStats> seenExceptions = new ConcurrentHashMap<>();
   private Map<String, List<ExceptionReport>> messageExceptionReports = new ConcurrentHashMap<>();
+  private Map<String, MessageStats> messageStats = new ConcurrentHashMap<>();
+  private final SeenCountIndex seenCountIndex = new SeenCountIndex();
+  // There are only as many of these as there are services and subscriptions, so they're never
+  // evicted, and they keep counting while the messages themselves come and go
+  private Map<String, RateCounter> serviceRateCounters = new ConcurrentHashMap<>();
+  private Map<String, RateCounter> subscriptionRateCounters = new ConcurrentHashMap<>();
+  // Counted from startup or the last full reset, however long ago the messages were evicted
+  private final HeavyHitters topMessageHashes = new HeavyHitters();
+  private final HeavyHitters topServices = new HeavyHitters();
+  private final HeavyHitters topSubscriptions = new HeavyHitters();
+  private final HeavyHitters topExceptionClasses = new HeavyHitters();
   private Map<String, String> messagesToSkipAndSkippingUser = new ConcurrentHashMap<>();
   private Set<String> messagesToPeek = ConcurrentHashMap.newKeySet();
   private Map<String, byte[]> peekedMessages = new ConcurrentHashMap<>();
-  private Map<String, List<SkippedMessage>> skippedMessages = new ConcurrentHashMap<>();
-  private Map<AutoQuarantineRule, Expression> autoQuarantineExpressions = new ConcurrentHashMap<>();
+  // Everyone waiting for a peek of each message hash, all completed when the reply arrives.
+  // Each has their own, so that one who gives up can be dropped without touching the others
+  private Map<String, Set<CompletableFuture<byte[]>>> peekReplyWaiters = new ConcurrentHashMap<>();
+  // Skipped messages themselves are only kept in the database, payloads and all, so memory doesn't
+  // grow with every message quarantined. Only the most recently skipped hashes are kept, so that
+  // their reports aren't evicted, with the oldest dropped first once there are too many
+  private Set<String> skippedMessageHashes = ConcurrentHashMap.newKeySet();
+  private Queue<String> skippedMessageHashOrder = new ConcurrentLinkedQueue<>();
+  // Exception reports grouped by roughly when they were last seen, oldest first. A report is only
+  // put in a bucket when it's first seen, and moved to a later bucket when the sweeper finds it's
+  // been seen since, so that repeat sightings don't have to touch this at all
+  private ConcurrentNavigableMap<Long, Set<ExceptionReport>> lastSeenBuckets =
+      new ConcurrentSkipListMap<>();
+  // Reports for quarantined or skipped messages, which stay so until a reset and are never evicted,
+  // taken out of the buckets so that the sweeper doesn't look at them again every time
+  private Set<ExceptionReport> heldExceptionReports = ConcurrentHashMap.newKeySet();
+  private final LongAdder messagesEvictedByAge = new LongAdder();
+  private final LongAdder messagesEvictedBySize = new LongAdder();
+  // Locks rather than synchronized, which would pin a virtual thread to its carrier while it waits
+  private final Lock storeLock = new ReentrantLock();
+  private final Lock ruleChangeLock = new ReentrantLock();
+  private final Lock evictionLock = new ReentrantLock();
+  // Reports last seen before this have been reset since the snapshot was taken, so mustn't be
+  // restored from it. Only matters while a snapshot's stats are still being restored
+  private volatile Instant resetCutoff = Instant.MIN;
+  private Clock clock = Clock.systemUTC();
+  // Swapped wholesale on every rule change, which are serialised because they're rare admin jobs
+  private volatile QuarantineRuleIndex quarantineRuleIndex;
+  private Map<ExceptionReport, RuleVerdict> ruleVerdictCache = new ConcurrentHashMap<>();
   private final AutoQuarantineRuleRepository quarantineRuleRepository;
   private final int numberOfRetriesBeforeLogging;
+  private final boolean compileQuarantineRules;
+  private final int maxCachedRuleVerdicts;
+  private final boolean deleteExpiredQuarantineRules;
+  private final int maxSeenMessages;
+  private final long maxSeenMessageAgeSeconds;
+  private final int maxSkippedMessageHashes;
+  private final SpelExpressionParser expressionParser;
+  // Set once metrics are bound, so that rules added or removed later get their meters too
+  private volatile MeterRegistry meterRegistry;
 
   public CachingDataStore(
       AutoQuarantineRuleRepository quarantineRuleRepository,
-      @Value("${general-config.number-of-retries-before-logging}")
-          int numberOfRetriesBeforeLogging) {
+      @Value("${general-config.number-of-retries-before-logging}") int numberOfRetriesBeforeLogging,
+      @Value("${general-config.compile-quarantine-rules}") boolean compileQuarantineRules,
+      @Value("${general-config.max-cached-rule-verdicts}") int maxCachedRuleVerdicts,
+      @Value("${general-config.delete-expired-quarantine-rules}")
+          boolean deleteExpiredQuarantineRules,
+      @Value("${general-config.max-seen-messages}") int maxSeenMessages,
+      @Value("${general-config.max-seen-message-age}") long maxSeenMessageAgeSeconds,
+      @Value("${general-config.max-skipped-message-hashes}") int maxSkippedMessageHashes) {
     this.quarantineRuleRepository = quarantineRuleRepository;
     this.numberOfRetriesBeforeLogging = numberOfRetriesBeforeLogging;
+    this.compileQuarantineRules = compileQuarantineRules;
+    this.maxCachedRuleVerdicts = maxCachedRuleVerdicts;
+    this.deleteExpiredQuarantineRules = deleteExpiredQuarantineRules;
+    this.maxSeenMessages = maxSeenMessages;
+    this.maxSeenMessageAgeSeconds = maxSeenMessageAgeSeconds;
+    this.maxSkippedMessageHashes = maxSkippedMessageHashes;
 
-    List<AutoQuarantineRule> autoQuarantineRules = quarantineRuleRepository.findAll();
+    // Compilation is left to each QuarantineRuleExpression, so that it knows whether it's compiled
+    expressionParser = new SpelExpressionParser();
 
-    for (AutoQuarantineRule rule : autoQuarantineRules) {
-      ExpressionParser expressionParser = new SpelExpressionParser();
-      Expression spelExpression = expressionParser.parseExpression(rule.getExpression());
-      autoQuarantineExpressions.put(rule, spelExpression);
+    List<QuarantineRuleExpression> ruleExpressions = new ArrayList<>();
+    for (AutoQuarantineRule rule : quarantineRuleRepository.findAll()) {
+      ruleExpressions.add(parseQuarantineRule(rule));
     }
+    quarantineRuleIndex = new QuarantineRuleIndex(ruleExpressions);
   }
 
-  public synchronized void updateStats(ExceptionReport exceptionReport) {
-    String messageHash = exceptionReport.getMessageHash();
+  public void updateStats(ExceptionReport exceptionReport) {
+    updateStatsForReport(exceptionReport, Instant.now(clock));
+  }
+
+  public void updateStats(List<ExceptionReport> exceptionReports) {
+    Instant now = Instant.now(clock);
+    for (ExceptionReport exceptionReport : exceptionReports) {
+      updateStatsForReport(exceptionReport, now);
+    }
+  }
+
+  private void updateStatsForReport(ExceptionReport exceptionReport, Instant now) {
+    recordRate(serviceRateCounters, exceptionReport.getService(), now);
+    recordRate(subscriptionRateCounters, exceptionReport.getSubscription(), now);
+    recordHeavyHitter(topMessageHashes, exceptionReport.getMessageHash());
+    recordHeavyHitter(topServices, exceptionReport.getService());
+    recordHeavyHitter(topSubscriptions, exceptionReport.getSubscription());
+    recordHeavyHitter(topExceptionClasses, exceptionReport.getExceptionClass());
 
     ExceptionStats exceptionStats = seenExceptions.get(exceptionReport);
 
-    if (exceptionStats != null) {
-      exceptionStats.getSeenCount().incrementAndGet();
-      exceptionStats.setLastSeen(Instant.now());
-      return;
+    if (exceptionStats == null) {
+      // Make sure the message stats exist before anyone can see the exception stats, so that later
+      // sightings are always counted in both
+      messageStats.computeIfAbsent(exceptionReport.getMessageHash(), key -> new MessageStats(now));
+
+      // Only one thread can win the first sighting; any thread which loses the race just counts
+      // as another sighting of the stats that the winner created
+      ExceptionStats newExceptionStats = new ExceptionStats();
+      newExceptionStats.setFirstSeen(now);
+      newExceptionStats.setLastSeen(now);
+      exceptionStats = seenExceptions.putIfAbsent(exceptionReport, newExceptionStats);
+
+      if (exceptionStats == null) {
+        // Add inside compute, so that eviction can't drop the list between us getting and using it
+        messageExceptionReports.compute(
+            exceptionReport.getMessageHash(),
+            (key, exceptionReports) -> {
+              List<ExceptionReport> result = exceptionReports;
+              if (result == null) {
+                result = new CopyOnWriteArrayList<>();
+                seenCountIndex.add(key);
+              }
+              result.add(exceptionReport);
+              messageStats
+                  .computeIfAbsent(key, messageHash -> new MessageStats(now))
+                  .addExceptionReport(exceptionReport, 1, now);
+              return result;
+            });
+        lastSeenBuckets
+            .computeIfAbsent(getLastSeenBucket(now), key -> ConcurrentHashMap.newKeySet())
+            .add(exceptionReport);
+        return;
+      }
     }
 
-    seenExceptions.put(exceptionReport, new ExceptionStats());
+    int seenCount = exceptionStats.getSeenCount().incrementAndGet();
+    exceptionStats.setLastSeen(now);
+    getOrCreateRateCounter(exceptionStats).record(now);
+    seenCountIndex.recordSeenCount(exceptionReport.getMessageHash(), seenCount);
 
-    List<ExceptionReport> exceptionReportList =
-        messageExceptionReports.computeIfAbsent(messageHash, key -> new LinkedList<>());
-    exceptionReportList.add(exceptionReport);
+    MessageStats stats = messageStats.get(exceptionReport.getMessageHash());
+    if (stats != null) {
+      stats.recordSighting(now);
+    }
   }
 
   public boolean shouldWeLogThisMessage(ExceptionReport exceptionReport) {
@@ -92,43 +228,98 @@ public class CachingDataStore {
   }
 
   public List<AutoQuarantineRule> findMatchingRules(ExceptionReport exceptionReport) {
-    List<AutoQuarantineRule> matchingRules = new LinkedList<>();
+    return findMatchingRules(exceptionReport, OffsetDateTime.now(clock));
+  }
+
+  public Map<ExceptionReport, List<AutoQuarantineRule>> findMatchingRules(
+      Collection<ExceptionReport> exceptionReports) {
+    Map<ExceptionReport, List<AutoQuarantineRule>> matchingRulesByReport = new HashMap<>();
+    OffsetDateTime now = OffsetDateTime.now(clock);
+
+    for (ExceptionReport exceptionReport : exceptionReports) {
+      // Identical reports in the same batch will always match the same rules
+      if (!matchingRulesByReport.containsKey(exceptionReport)) {
+        matchingRulesByReport.put(exceptionReport, findMatchingRules(exceptionReport, now));
+      }
+    }
 
-    EvaluationContext context = new StandardEvaluationContext(exceptionReport);
-    for (Entry<AutoQuarantineRule, Expression> ruleExpressionEntry :
-        autoQuarantineExpressions.entrySet()) {
-      Expression expression = ruleExpressionEntry.getValue();
-      AutoQuarantineRule autoQuarantineRule = ruleExpressionEntry.getKey();
+    return matchingRulesByReport;
+  }
+
+  private List<AutoQuarantineRule> findMatchingRules(
+      ExceptionReport exceptionReport, OffsetDateTime now) {
+    QuarantineRuleIndex ruleIndex = quarantineRuleIndex;
+    RuleVerdict ruleVerdict = ruleVerdictCache.get(exceptionReport);
+
+    if (ruleVerdict == null || !ruleVerdict.isValidFor(ruleIndex, now)) {
+      ruleVerdict = evaluateRules(exceptionReport, ruleIndex, now);
+      cacheRuleVerdict(exceptionReport, ruleVerdict);
+    }
+
+    for (QuarantineRuleExpression ruleExpression : ruleVerdict.getMatchingRuleExpressions()) {
+      // Counted here rather than on evaluation, so that retries answered from cache count too
+      ruleExpression.getMatchedReports().increment();
 
-      if (OffsetDateTime.now().isAfter(autoQuarantineRule.getRuleExpiryDateTime())) {
+      AutoQuarantineRule autoQuarantineRule = ruleExpression.getRule();
+      if (!autoQuarantineRule.isSuppressLogging() && !autoQuarantineRule.isThrowAway()) {
+        log.atWarn()
+            .setMessage("Auto-quarantine message rule matched")
+            .addKeyValue("expression", autoQuarantineRule.getExpression())
+            .addKeyValue("exception_report", exceptionReport)
+            .log();
+      }
+    }
+
+    return ruleVerdict.getMatchingRules();
+  }
+
+  private RuleVerdict evaluateRules(
+      ExceptionReport exceptionReport, QuarantineRuleIndex ruleIndex, OffsetDateTime now) {
+    List<QuarantineRuleExpression> matchingRules = new ArrayList<>();
+    boolean cacheable = true;
+
+    // Normally the reaper has already removed expired rules, but it might not have caught up yet
+    boolean mightHaveExpiredRules = now.isAfter(ruleIndex.getEarliestExpiry());
+
+    // A context for each report rather than one shared one, as contexts are mutable, so one shared
+    // between the threads reporting exceptions could have one rule's changes seen by another's
+    EvaluationContext evaluationContext = new StandardEvaluationContext(exceptionReport);
+
+    for (QuarantineRuleExpression ruleExpression : ruleIndex.findCandidateRules(exceptionReport)) {
+      if (mightHaveExpiredRules && now.isAfter(ruleExpression.getExpiry())) {
         continue; // This rule has expired, so it can not match
       }
 
       try {
-        Boolean expressionResult = expression.getValue(context, Boolean.class);
-        if (expressionResult != null && expressionResult) {
-
-          if (!autoQuarantineRule.isSuppressLogging() && !autoQuarantineRule.isThrowAway()) {
-            log.atWarn()
-                .setMessage("Auto-quarantine message rule matched")
-                .addKeyValue("expression", expression.getExpressionString())
-                .addKeyValue("exception_report", exceptionReport)
-                .log();
-          }
-
-          matchingRules.add(autoQuarantineRule);
+        if (ruleExpression.matches(evaluationContext, exceptionReport)) {
+          matchingRules.add(ruleExpression);
         }
       } catch (Exception e) {
+        // Don't remember this verdict, so that the broken rule keeps getting reported
+        cacheable = false;
         log.atWarn()
             .setMessage("Auto-quarantine rule is causing errors")
             .setCause(e)
-            .addKeyValue("expression", expression.getExpressionString())
+            .addKeyValue("expression", ruleExpression.getExpression().getExpressionString())
             .addKeyValue("exception_report", exceptionReport)
             .log();
       }
     }
 
-    return matchingRules;
+    return new RuleVerdict(ruleIndex, matchingRules, cacheable);
+  }
+
+  private void cacheRuleVerdict(ExceptionReport exceptionReport, RuleVerdict ruleVerdict) {
+    if (maxCachedRuleVerdicts <= 0 || !ruleVerdict.isCacheable()) {
+      return;
+    }
+
+    if (ruleVerdictCache.size() >= maxCachedRuleVerdicts) {
+      // Crude but cheap: start again rather than keep track of which verdicts are least used
+      ruleVerdictCache.clear();
+    }
+
+    ruleVerdictCache.put(exceptionReport, ruleVerdict);
   }
 
   public boolean isQuarantined(String messageHash) {
@@ -150,35 +341,111 @@ public class CachingDataStore {
   public Set<String> getSeenMessageHashes(int minimumSeenCount) {
     Set<String> result = new HashSet<>();
 
-    for (Entry<ExceptionReport, ExceptionStats> item : seenExceptions.entrySet()) {
-      if (item.getValue().getSeenCount().get() >= minimumSeenCount) {
-        result.add(item.getKey().getMessageHash());
+    for (Collection<String> candidates : seenCountIndex.findCandidates(minimumSeenCount)) {
+      for (String messageHash : candidates) {
+        List<ExceptionReport> exceptionReports = messageExceptionReports.get(messageHash);
+        if (exceptionReports != null && getHighestSeenCount(exceptionReports) >= minimumSeenCount) {
+          result.add(messageHash);
+        }
       }
     }
 
     return result;
   }
 
+  private int getHighestSeenCount(List<ExceptionReport> exceptionReports) {
+    int highestSeenCount = 0;
+
+    for (ExceptionReport exceptionReport : exceptionReports) {
+      ExceptionStats exceptionStats = seenExceptions.get(exceptionReport);
+      if (exceptionStats != null) {
+        highestSeenCount = Math.max(highestSeenCount, exceptionStats.getSeenCount().get());
+      }
+    }
+
+    return highestSeenCount;
+  }
+
   public void skipMessage(String messageHash, String originatingUser) {
     messagesToSkipAndSkippingUser.put(messageHash, originatingUser);
   }
 
-  public void peekMessage(String messageHash) {
+  public CompletableFuture<byte[]> peekMessage(String messageHash) {
+    CompletableFuture<byte[]> peekReplyWaiter = new CompletableFuture<>();
+    // Added inside the map operation, or the last waiter giving up could drop the set from the map
+    // just before we added to it, and then the reply would never find us
+    peekReplyWaiters.compute(
+        messageHash,
+        (key, waiters) -> {
+          Set<CompletableFuture<byte[]>> updatedWaiters =
+              waiters == null ? ConcurrentHashMap.newKeySet() : waiters;
+          updatedWaiters.add(peekReplyWaiter);
+          return updatedWaiters;
+        });
+    messagesToPeek.add(messageHash);
+
+    // The reply is stored before the waiters are completed, so if we've just missed the waiters
+    // being completed then the reply will be here already
+    byte[] peekedMessage = peekedMessages.get(messageHash);
+    if (peekedMessage != null) {
+      stopWaitingForPeek(messageHash, peekReplyWaiter);
+      peekReplyWaiter.complete(peekedMessage);
+    }
+
+    return peekReplyWaiter;
+  }
+
+  /** Drops the waiter of a caller who's given up, rather than holding it until a reply comes */
+  public void stopWaitingForPeek(String messageHash, CompletableFuture<byte[]> peekReplyWaiter) {
+    peekReplyWaiters.computeIfPresent(
+        messageHash,
+        (key, waiters) -> {
+          waiters.remove(peekReplyWaiter);
+          return waiters.isEmpty() ? null : waiters;
+        });
+  }
+
+  /** Asks for a message again after a restart, without waiting for the reply */
+  void restorePeekRequest(String messageHash) {
     messagesToPeek.add(messageHash);
   }
 
-  public synchronized void storePeekMessageReply(Peek peekReply) {
-    peekedMessages.put(peekReply.getMessageHash(), peekReply.getMessagePayload());
+  public void storePeekMessageReply(Peek peekReply) {
+    storeLock.lock();
+    try {
+      peekedMessages.put(peekReply.getMessageHash(), peekReply.getMessagePayload());
+
+      // We don't want services to keep sending us the 'peek'ed message now we've got it
+      messagesToPeek.remove(peekReply.getMessageHash());
+
+      Set<CompletableFuture<byte[]>> waiters = peekReplyWaiters.remove(peekReply.getMessageHash());
+      if (waiters != null) {
+        for (CompletableFuture<byte[]> peekReplyWaiter : waiters) {
+          peekReplyWaiter.complete(peekReply.getMessagePayload());
+        }
+      }
+    } finally {
+      storeLock.unlock();
+    }
+  }
 
-    // We don't want services to keep sending us the 'peek'ed message now we've got it
-    messagesToPeek.remove(peekReply.getMessageHash());
+  public void storeSkippedMessage(SkippedMessage skippedMessage) {
+    rememberSkippedMessageHash(skippedMessage.getMessageHash());
   }
 
-  public synchronized void storeSkippedMessage(SkippedMessage skippedMessage) {
-    // Make damn certain this is thread safe so we don't lose anything
-    List<SkippedMessage> skippedMessageList =
-        skippedMessages.computeIfAbsent(skippedMessage.getMessageHash(), key -> new LinkedList<>());
-    skippedMessageList.add(skippedMessage);
+  private void rememberSkippedMessageHash(String messageHash) {
+    if (!skippedMessageHashes.add(messageHash)) {
+      return;
+    }
+
+    skippedMessageHashOrder.add(messageHash);
+    while (maxSkippedMessageHashes > 0 && skippedMessageHashes.size() > maxSkippedMessageHashes) {
+      String oldestMessageHash = skippedMessageHashOrder.poll();
+      if (oldestMessageHash == null) {
+        break;
+      }
+      skippedMessageHashes.remove(oldestMessageHash);
+    }
   }
 
   public byte[] getPeekedMessage(String messageHash) {
@@ -186,48 +453,114 @@ public class CachingDataStore {
   }
 
   public List<BadMessageReport> getBadMessageReports(String messageHash) {
-    List<BadMessageReport> results = new LinkedList<>();
     List<ExceptionReport> exceptionReportList = messageExceptionReports.get(messageHash);
 
     if (exceptionReportList == null) {
-      return Collections.emptyList();
+      return new ArrayList<>();
     }
 
+    List<BadMessageReport> results = new ArrayList<>(exceptionReportList.size());
+
+    Instant now = Instant.now(clock);
     for (ExceptionReport exceptionReport : exceptionReportList) {
+      ExceptionStats exceptionStats = seenExceptions.get(exceptionReport);
       BadMessageReport badMessageReport = new BadMessageReport();
       badMessageReport.setExceptionReport(exceptionReport);
-      badMessageReport.setStats(seenExceptions.get(exceptionReport));
+      badMessageReport.setStats(exceptionStats);
+      if (exceptionStats != null) {
+        badMessageReport.setRates(getExceptionRates(exceptionStats, now));
+      }
       results.add(badMessageReport);
     }
 
     return results;
   }
 
-  public Map<String, List<SkippedMessage>> getAllSkippedMessages() {
-    return skippedMessages;
+  public BadMessageSummary getBadMessageSummary(String messageHash) {
+    MessageStats stats = messageStats.get(messageHash);
+    if (stats == null) {
+      return null;
+    }
+
+    BadMessageSummary badMessageSummary = stats.toBadMessageSummary(messageHash);
+
+    // Summed across the message's exception reports when asked for, so that sightings only have
+    // to count once. There are rarely more than a handful of reports for one message
+    Instant now = Instant.now(clock);
+    ExceptionRates exceptionRates = new ExceptionRates();
+    for (ExceptionReport exceptionReport :
+        messageExceptionReports.getOrDefault(messageHash, Collections.emptyList())) {
+      ExceptionStats exceptionStats = seenExceptions.get(exceptionReport);
+      if (exceptionStats != null) {
+        addExceptionRates(exceptionRates, exceptionStats, now);
+      }
+    }
+    badMessageSummary.setRates(exceptionRates);
+
+    return badMessageSummary;
   }
 
-  public List<SkippedMessage> getSkippedMessages(String messageHash) {
-    return skippedMessages.get(messageHash);
+  public BadMessageRates getBadMessageRates() {
+    Instant now = Instant.now(clock);
+    BadMessageRates badMessageRates = new BadMessageRates();
+    badMessageRates.setServices(toExceptionRates(serviceRateCounters, now));
+    badMessageRates.setSubscriptions(toExceptionRates(subscriptionRateCounters, now));
+    return badMessageRates;
+  }
+
+  public TopBadMessages getTopBadMessages(int limit) {
+    TopBadMessages topBadMessages = new TopBadMessages();
+    topBadMessages.setMessageHashes(topMessageHashes.getTop(limit));
+    topBadMessages.setServices(topServices.getTop(limit));
+    topBadMessages.setSubscriptions(topSubscriptions.getTop(limit));
+    topBadMessages.setExceptionClasses(topExceptionClasses.getTop(limit));
+    return topBadMessages;
+  }
+
+  public int getMaxTopBadMessages() {
+    return HeavyHitters.CAPACITY;
+  }
+
+  public boolean hasSkippedMessages(String messageHash) {
+    return skippedMessageHashes.contains(messageHash);
   }
 
   public void reset(Optional<Integer> resetOldMessages) {
 
     if (resetOldMessages.isPresent()) {
-      for (Entry<ExceptionReport, ExceptionStats> item : seenExceptions.entrySet()) {
-        Instant timeCutoff = Instant.now().minusSeconds(resetOldMessages.get());
-
-        if (timeCutoff.isAfter(item.getValue().getLastSeen())) {
-          seenExceptions.remove(item.getKey());
-          messageExceptionReports.remove(item.getKey().getMessageHash());
-        }
+      Instant now = Instant.now(clock);
+      Instant ageCutoff = now.minusSeconds(resetOldMessages.get());
+      if (ageCutoff.isAfter(resetCutoff)) {
+        resetCutoff = ageCutoff;
       }
-    } else {
+      sweepSeenExceptions(now, ageCutoff, 0, true);
+      return;
+    }
+
+    // Under the eviction lock, so that a snapshot being restored can't put anything back
+    evictionLock.lock();
+    try {
+      resetCutoff = Instant.MAX;
       seenExceptions.clear();
       messageExceptionReports.clear();
+      messageStats.clear();
+      seenCountIndex.clear();
+      serviceRateCounters.clear();
+      subscriptionRateCounters.clear();
+      topMessageHashes.clear();
+      topServices.clear();
+      topSubscriptions.clear();
+      topExceptionClasses.clear();
+      lastSeenBuckets.clear();
+      heldExceptionReports.clear();
       messagesToSkipAndSkippingUser.clear();
       messagesToPeek.clear();
       peekedMessages.clear();
+      peekReplyWaiters.clear();
+      skippedMessageHashes.clear();
+      skippedMessageHashOrder.clear();
+    } finally {
+      evictionLock.unlock();
     }
   }
 
@@ -237,20 +570,27 @@ public class CachingDataStore {
       boolean quarantine,
       boolean throwAway,
       OffsetDateTime ruleExpiryDateTime) {
-    ExpressionParser expressionParser = new SpelExpressionParser();
-    Expression spelExpression = expressionParser.parseExpression(expression);
+    ruleChangeLock.lock();
+    try {
+      AutoQuarantineRule autoQuarantineRule = new AutoQuarantineRule();
+      autoQuarantineRule.setId(UUID.randomUUID());
+      autoQuarantineRule.setExpression(expression);
+      autoQuarantineRule.setSuppressLogging(doNotLog);
+      autoQuarantineRule.setQuarantine(quarantine);
+      autoQuarantineRule.setThrowAway(throwAway);
+      autoQuarantineRule.setRuleExpiryDateTime(ruleExpiryDateTime);
 
-    AutoQuarantineRule autoQuarantineRule = new AutoQuarantineRule();
-    autoQuarantineRule.setId(UUID.randomUUID());
-    autoQuarantineRule.setExpression(expression);
-    autoQuarantineRule.setSuppressLogging(doNotLog);
-    autoQuarantineRule.setQuarantine(quarantine);
-    autoQuarantineRule.setThrowAway(throwAway);
-    autoQuarantineRule.setRuleExpiryDateTime(ruleExpiryDateTime);
+      // Parse before saving, so that a broken expression is rejected without being persisted
+      QuarantineRuleExpression ruleExpression = parseQuarantineRule(autoQuarantineRule);
 
-    quarantineRuleRepository.saveAndFlush(autoQuarantineRule);
+      quarantineRuleRepository.saveAndFlush(autoQuarantineRule);
 
-    autoQuarantineExpressions.put(autoQuarantineRule, spelExpression);
+      quarantineRuleIndex = quarantineRuleIndex.withRule(ruleExpression);
+      ruleVerdictCache.clear();
+      registerRuleMeters(ruleExpression);
+    } finally {
+      ruleChangeLock.unlock();
+    }
   }
 
   public List<AutoQuarantineRule> getQuarantineRules() {
@@ -258,13 +598,619 @@ public class CachingDataStore {
   }
 
   public void deleteQuarantineRule(String id) {
-    quarantineRuleRepository.deleteById(UUID.fromString(id));
-    List<AutoQuarantineRule> rules = quarantineRuleRepository.findAll();
-    autoQuarantineExpressions.clear();
-    for (AutoQuarantineRule rule : rules) {
-      ExpressionParser expressionParser = new SpelExpressionParser();
-      Expression spelExpression = expressionParser.parseExpression(rule.getExpression());
-      autoQuarantineExpressions.put(rule, spelExpression);
+    ruleChangeLock.lock();
+    try {
+      UUID ruleId = UUID.fromString(id);
+      quarantineRuleRepository.deleteById(ruleId);
+      quarantineRuleIndex = quarantineRuleIndex.withoutRule(ruleId);
+      ruleVerdictCache.clear();
+      removeRuleMeters(ruleId);
+    } finally {
+      ruleChangeLock.unlock();
+    }
+  }
+
+  public int removeExpiredQuarantineRules() {
+    ruleChangeLock.lock();
+    try {
+      QuarantineRuleIndex ruleIndex = quarantineRuleIndex;
+      QuarantineRuleIndex liveRuleIndex = ruleIndex.withoutExpiredRules(OffsetDateTime.now(clock));
+
+      if (liveRuleIndex == ruleIndex) {
+        return 0;
+      }
+
+      List<UUID> expiredRuleIds = new ArrayList<>();
+      for (QuarantineRuleExpression ruleExpression : ruleIndex.getRuleExpressions()) {
+        if (!liveRuleIndex.getRuleExpressions().contains(ruleExpression)) {
+          expiredRuleIds.add(ruleExpression.getRule().getId());
+        }
+      }
+
+      if (deleteExpiredQuarantineRules) {
+        quarantineRuleRepository.deleteAllById(expiredRuleIds);
+      }
+
+      // Verdicts are tied to the snapshot they were made with, so they'd all be re-evaluated anyway
+      quarantineRuleIndex = liveRuleIndex;
+      ruleVerdictCache.clear();
+      for (UUID expiredRuleId : expiredRuleIds) {
+        removeRuleMeters(expiredRuleId);
+      }
+
+      return expiredRuleIds.size();
+    } finally {
+      ruleChangeLock.unlock();
+    }
+  }
+
+  public Set<UUID> getCompiledQuarantineRuleIds() {
+    Set<UUID> compiledRuleIds = new HashSet<>();
+
+    for (QuarantineRuleExpression ruleExpression : quarantineRuleIndex.getRuleExpressions()) {
+      if (ruleExpression.isCompiled()) {
+        compiledRuleIds.add(ruleExpression.getRule().getId());
+      }
+    }
+
+    return compiledRuleIds;
+  }
+
+  private QuarantineRuleExpression parseQuarantineRule(AutoQuarantineRule rule) {
+    SpelExpression spelExpression = expressionParser.parseRaw(rule.getExpression());
+    return new QuarantineRuleExpression(rule, spelExpression, compileQuarantineRules);
+  }
+
+  /**
+   * Forgets the exception reports which haven't been seen for longer than the maximum age, then the
+   * least recently seen reports until there are no more than the maximum number of message hashes.
+   * A message hash is forgotten along with its last report. Quarantined messages are never evicted.
+   */
+  public int evictSeenMessages() {
+    Instant now = Instant.now(clock);
+    Instant ageCutoff =
+        maxSeenMessageAgeSeconds > 0 ? now.minusSeconds(maxSeenMessageAgeSeconds) : Instant.MIN;
+    return sweepSeenExceptions(now, ageCutoff, maxSeenMessages, false);
+  }
+
+  private int sweepSeenExceptions(
+      Instant now, Instant ageCutoff, int maxMessages, boolean includeQuarantined) {
+    long ageCutoffBucket = getLastSeenBucket(ageCutoff);
+    // New sightings might still be being added to the most recent buckets, so keep them even if
+    // they're empty, otherwise a sighting could be added to a bucket which is no longer indexed
+    long newestRemovableBucket = getLastSeenBucket(now) - 2;
+    int forgottenMessageCount = 0;
+
+    evictionLock.lock();
+    try {
+      if (includeQuarantined) {
+        releaseHeldExceptionReports();
+      }
+
+      Entry<Long, Set<ExceptionReport>> bucket = lastSeenBuckets.firstEntry();
+
+      // Only the old end of the index is visited, one report at a time, so ingest never waits on
+      // more than a single message hash
+      while (bucket != null
+          && (bucket.getKey() <= ageCutoffBucket || isOverMessageLimit(maxMessages))) {
+        Iterator<ExceptionReport> bucketIterator = bucket.getValue().iterator();
+
+        while (bucketIterator.hasNext()) {
+          ExceptionReport exceptionReport = bucketIterator.next();
+          ExceptionStats exceptionStats = seenExceptions.get(exceptionReport);
+
+          if (exceptionStats == null) {
+            bucketIterator.remove(); // Already forgotten
+            continue;
+          }
+
+          Instant lastSeen = exceptionStats.getLastSeen();
+          long lastSeenBucket = getLastSeenBucket(lastSeen);
+
+          if (!includeQuarantined && isQuarantinedOrSkipped(exceptionReport.getMessageHash())) {
+            bucketIterator.remove();
+            heldExceptionReports.add(exceptionReport);
+            continue;
+          }
+
+          if (lastSeen.isBefore(ageCutoff)) {
+            bucketIterator.remove();
+            if (forgetSeenException(exceptionReport, exceptionStats, lastSeen)) {
+              messagesEvictedByAge.increment();
+              forgottenMessageCount++;
+            }
+          } else if (lastSeenBucket <= bucket.getKey() && isOverMessageLimit(maxMessages)) {
+            bucketIterator.remove();
+            if (forgetSeenException(exceptionReport, exceptionStats, lastSeen)) {
+              messagesEvictedBySize.increment();
+              forgottenMessageCount++;
+            }
+          } else if (lastSeenBucket > bucket.getKey()) {
+            bucketIterator.remove();
+            lastSeenBuckets
+                .computeIfAbsent(lastSeenBucket, key -> ConcurrentHashMap.newKeySet())
+                .add(exceptionReport);
+          }
+        }
+
+        if (bucket.getValue().isEmpty() && bucket.getKey() <= newestRemovableBucket) {
+          lastSeenBuckets.remove(bucket.getKey(), bucket.getValue());
+        }
+
+        bucket = lastSeenBuckets.higherEntry(bucket.getKey());
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+
+    return forgottenMessageCount;
+  }
+
+  /**
+   * Returns true if this was the last report for its message hash, so the hash was forgotten. Stats
+   * are compared by identity, as a report forgotten and seen again gets new, equal stats.
+   */
+  @SuppressWarnings("ReferenceEquality")
+  private boolean forgetSeenException(
+      ExceptionReport exceptionReport, ExceptionStats exceptionStats, Instant lastSeen) {
+    String messageHash = exceptionReport.getMessageHash();
+    boolean[] messageForgotten = new boolean[1];
+
+    // Done inside compute so that a new report for the same message hash can't be lost
+    messageExceptionReports.computeIfPresent(
+        messageHash,
+        (key, exceptionReports) -> {
+          if (seenExceptions.get(exceptionReport) != exceptionStats) {
+            return exceptionReports; // Forgotten and seen again since we looked
+          }
+
+          if (!lastSeen.equals(exceptionStats.getLastSeen())) {
+            // Seen again since we looked, so put it back to be considered on the next sweep
+            lastSeenBuckets
+                .computeIfAbsent(
+                    getLastSeenBucket(exceptionStats.getLastSeen()),
+                    bucket -> ConcurrentHashMap.newKeySet())
+                .add(exceptionReport);
+            return exceptionReports;
+          }
+
+          exceptionReports.remove(exceptionReport);
+          seenExceptions.remove(exceptionReport);
+          ruleVerdictCache.remove(exceptionReport);
+
+          if (exceptionReports.isEmpty()) {
+            messageStats.remove(messageHash);
+            seenCountIndex.remove(messageHash);
+            messageForgotten[0] = true;
+            return null;
+          }
+
+          // Rare enough to just start again from what's left
+          messageStats.put(messageHash, MessageStats.of(exceptionReports, seenExceptions));
+          seenCountIndex.reindex(messageHash, getHighestSeenCount(exceptionReports));
+          return exceptionReports;
+        });
+
+    if (messageForgotten[0]) {
+      peekedMessages.remove(messageHash);
+      peekReplyWaiters.remove(messageHash);
+    }
+
+    return messageForgotten[0];
+  }
+
+  /** Puts held reports back in the buckets, for a reset which forgets quarantined messages too */
+  private void releaseHeldExceptionReports() {
+    evictionLock.lock();
+    try {
+      Iterator<ExceptionReport> heldIterator = heldExceptionReports.iterator();
+      while (heldIterator.hasNext()) {
+        ExceptionReport exceptionReport = heldIterator.next();
+        heldIterator.remove();
+
+        ExceptionStats exceptionStats = seenExceptions.get(exceptionReport);
+        if (exceptionStats != null) {
+          lastSeenBuckets
+              .computeIfAbsent(
+                  getLastSeenBucket(exceptionStats.getLastSeen()),
+                  bucket -> ConcurrentHashMap.newKeySet())
+              .add(exceptionReport);
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private boolean isQuarantinedOrSkipped(String messageHash) {
+    return isQuarantined(messageHash) || hasSkippedMessages(messageHash);
+  }
+
+  private boolean isOverMessageLimit(int maxMessages) {
+    return maxMessages > 0 && messageExceptionReports.size() > maxMessages;
+  }
+
+  /**
+   * Writes out what can't be rebuilt from anything else: the exception reports and their stats, and
+   * the skip and peek instructions. It's written while reports keep coming in, so it's only roughly
+   * a single point in time. The first journal segment which isn't covered by it is written along
+   * with it, so that older segments which outlive it aren't replayed over it.
+   */
+  void writeSnapshot(SnapshotOutput out, long firstJournalSegment) throws IOException {
+    out.writeInt(SNAPSHOT_FORMAT);
+    out.writeLong(firstJournalSegment);
+
+    // The operator's instructions come first, so that a restart can act on them before the stats
+    // behind them are restored. Each entry is preceded by true and the list ends with false, rather
+    // than starting with a count, because the maps can change while we're writing them out
+    for (Entry<String, String> entry : messagesToSkipAndSkippingUser.entrySet()) {
+      out.writeBoolean(true);
+      out.writeString(entry.getKey());
+      out.writeString(entry.getValue());
+    }
+    out.writeBoolean(false);
+
+    for (String messageHash : messagesToPeek) {
+      out.writeBoolean(true);
+      out.writeString(messageHash);
+    }
+    out.writeBoolean(false);
+
+    for (Entry<String, byte[]> entry : peekedMessages.entrySet()) {
+      out.writeBoolean(true);
+      out.writeString(entry.getKey());
+      out.writeBytes(entry.getValue());
+    }
+    out.writeBoolean(false);
+
+    // Oldest first, so that the same ones are dropped first after a restart
+    for (String messageHash : skippedMessageHashOrder) {
+      if (!skippedMessageHashes.contains(messageHash)) {
+        continue; // Already dropped to make room, but not yet off the queue
+      }
+
+      out.writeBoolean(true);
+      out.writeString(messageHash);
+    }
+    out.writeBoolean(false);
+
+    for (Entry<String, List<ExceptionReport>> entry : messageExceptionReports.entrySet()) {
+      out.writeBoolean(true);
+      out.writeString(entry.getKey());
+      for (ExceptionReport exceptionReport : entry.getValue()) {
+        ExceptionStats exceptionStats = seenExceptions.get(exceptionReport);
+        if (exceptionStats == null) {
+          continue; // Forgotten since we got the list
+        }
+
+        out.writeBoolean(true);
+        out.writeString(exceptionReport.getService());
+        out.writeString(exceptionReport.getSubscription());
+        out.writeString(exceptionReport.getExceptionClass());
+        out.writeString(exceptionReport.getExceptionMessage());
+        out.writeString(exceptionReport.getExceptionRootCause());
+        out.writeInstant(exceptionStats.getFirstSeen());
+        out.writeInstant(exceptionStats.getLastSeen());
+        out.writeInt(exceptionStats.getSeenCount().get());
+        out.writeBoolean(exceptionStats.isLoggedAtLeastOnce());
+      }
+      out.writeBoolean(false);
+    }
+    out.writeBoolean(false);
+
+    out.flush();
+  }
+
+  /**
+   * Reads back the operator's instructions from what {@link #writeSnapshot} wrote, into a store
+   * which hasn't been used yet. None of them are changed unless they can all be read. The exception
+   * stats are left for {@link #restoreSnapshotStats}. Returns the first journal segment to replay
+   * over it.
+   */
+  long readSnapshot(SnapshotInput in) throws IOException {
+    if (in.readInt() != SNAPSHOT_FORMAT) {
+      throw new IOException("Snapshot is not in a format we can read");
+    }
+    long firstJournalSegment = in.readLong();
+
+    Map<String, String> snapshotMessagesToSkip = new HashMap<>();
+    while (in.readBoolean()) {
+      snapshotMessagesToSkip.put(in.readString(), in.readString());
+    }
+
+    Set<String> snapshotMessagesToPeek = new HashSet<>();
+    while (in.readBoolean()) {
+      snapshotMessagesToPeek.add(in.readString());
+    }
+
+    Map<String, byte[]> snapshotPeekedMessages = new HashMap<>();
+    while (in.readBoolean()) {
+      snapshotPeekedMessages.put(in.readString(), in.readBytes());
+    }
+
+    Set<String> snapshotSkippedMessageHashes = new LinkedHashSet<>();
+    while (in.readBoolean()) {
+      snapshotSkippedMessageHashes.add(in.readString());
+    }
+
+    messagesToSkipAndSkippingUser.putAll(snapshotMessagesToSkip);
+    messagesToPeek.addAll(snapshotMessagesToPeek);
+    peekedMessages.putAll(snapshotPeekedMessages);
+    for (String messageHash : snapshotSkippedMessageHashes) {
+      rememberSkippedMessageHash(messageHash);
+    }
+
+    return firstJournalSegment;
+  }
+
+  /**
+   * Restores the exception stats which {@link #readSnapshot} left behind, while the store is in
+   * use. Sightings since the restart are added to rather than replaced, and nothing reset since is
+   * brought back. If the rest can't be read, what was restored up to then is kept. Returns how many
+   * exception reports were restored.
+   */
+  int restoreSnapshotStats(SnapshotInput in) throws IOException {
+    Map<ExceptionReport, ExceptionStats> batch = new LinkedHashMap<>();
+    int restoredCount = 0;
+
+    try {
+      while (in.readBoolean()) {
+        String messageHash = in.readString();
+
+        while (in.readBoolean()) {
+          ExceptionReport exceptionReport = new ExceptionReport();
+          exceptionReport.setMessageHash(messageHash);
+          exceptionReport.setService(in.readString());
+          exceptionReport.setSubscription(in.readString());
+          exceptionReport.setExceptionClass(in.readString());
+          exceptionReport.setExceptionMessage(in.readString());
+          exceptionReport.setExceptionRootCause(in.readString());
+
+          ExceptionStats exceptionStats = new ExceptionStats();
+          exceptionStats.setFirstSeen(in.readInstant());
+          exceptionStats.setLastSeen(in.readInstant());
+          exceptionStats.getSeenCount().set(in.readInt());
+          exceptionStats.setLoggedAtLeastOnce(in.readBoolean());
+          batch.putIfAbsent(exceptionReport, exceptionStats);
+
+          if (batch.size() >= SNAPSHOT_RESTORE_BATCH_SIZE) {
+            restoredCount += restoreSeenExceptions(batch);
+            batch.clear();
+          }
+        }
+      }
+    } finally {
+      // Even if the rest is truncated, what was read before then is worth having
+      restoredCount += restoreSeenExceptions(batch);
+    }
+
+    return restoredCount;
+  }
+
+  private int restoreSeenExceptions(Map<ExceptionReport, ExceptionStats> restoredExceptions) {
+    int restoredCount = 0;
+
+    // Under the eviction lock, so that a reset either sees what's restored or stops it coming back
+    evictionLock.lock();
+    try {
+      for (Entry<ExceptionReport, ExceptionStats> entry : restoredExceptions.entrySet()) {
+        if (entry.getValue().getLastSeen().isBefore(resetCutoff)) {
+          continue;
+        }
+
+        restoreSeenException(entry.getKey(), entry.getValue());
+        restoredCount++;
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+
+    return restoredCount;
+  }
+
+  private void restoreSeenException(ExceptionReport exceptionReport, ExceptionStats restoredStats) {
+    String messageHash = exceptionReport.getMessageHash();
+    Instant firstSeen = restoredStats.getFirstSeen();
+    Instant lastSeen = restoredStats.getLastSeen();
+    int restoredSeenCount = restoredStats.getSeenCount().get();
+
+    // As for a first sighting, the message stats must exist before anyone can see the report's
+    messageStats.computeIfAbsent(messageHash, key -> new MessageStats(firstSeen));
+    ExceptionStats exceptionStats = seenExceptions.putIfAbsent(exceptionReport, restoredStats);
+
+    if (exceptionStats != null) {
+      // Seen again since the restart, before we got to it, so add on the sightings from before
+      exceptionStats.getSeenCount().addAndGet(restoredSeenCount);
+      if (firstSeen.isBefore(exceptionStats.getFirstSeen())) {
+        exceptionStats.setFirstSeen(firstSeen);
+      }
+      if (restoredStats.isLoggedAtLeastOnce()) {
+        exceptionStats.setLoggedAtLeastOnce(true);
+      }
+    }
+
+    // Nothing can be evicted while we hold the eviction lock, so a missing list only means the
+    // thread which saw it again hasn't added the report yet, and will add it to this one
+    messageExceptionReports.compute(
+        messageHash,
+        (key, exceptionReports) -> {
+          List<ExceptionReport> result = exceptionReports;
+          if (result == null) {
+            result = new CopyOnWriteArrayList<>();
+          }
+          if (exceptionStats == null) {
+            result.add(exceptionReport);
+          }
+          messageStats
+              .computeIfAbsent(key, hash -> new MessageStats(firstSeen))
+              .addEarlierSightings(exceptionReport, restoredSeenCount, firstSeen, lastSeen);
+          seenCountIndex.reindex(key, getHighestSeenCount(result));
+          return result;
+        });
+
+    if (exceptionStats == null) {
+      lastSeenBuckets
+          .computeIfAbsent(getLastSeenBucket(lastSeen), key -> ConcurrentHashMap.newKeySet())
+          .add(exceptionReport);
+    }
+  }
+
+  private static void recordRate(Map<String, RateCounter> rateCounters, String key, Instant seen) {
+    // Reports don't always say which service or subscription they came from
+    if (key != null) {
+      rateCounters.computeIfAbsent(key, newKey -> RateCounter.perSecond()).record(seen);
+    }
+  }
+
+  private static RateCounter getOrCreateRateCounter(ExceptionStats exceptionStats) {
+    RateCounter rateCounter = exceptionStats.getRateCounter().get();
+    if (rateCounter != null) {
+      return rateCounter;
+    }
+
+    // Counts the first sighting too, which happened before there was a counter to record it
+    RateCounter newRateCounter = RateCounter.perTenSeconds();
+    newRateCounter.record(exceptionStats.getFirstSeen());
+    if (exceptionStats.getRateCounter().compareAndSet(null, newRateCounter)) {
+      return newRateCounter;
+    }
+    return exceptionStats.getRateCounter().get();
+  }
+
+  private static ExceptionRates getExceptionRates(ExceptionStats exceptionStats, Instant now) {
+    ExceptionRates exceptionRates = new ExceptionRates();
+    addExceptionRates(exceptionRates, exceptionStats, now);
+    return exceptionRates;
+  }
+
+  private static void addExceptionRates(
+      ExceptionRates exceptionRates, ExceptionStats exceptionStats, Instant now) {
+    RateCounter rateCounter = exceptionStats.getRateCounter().get();
+    if (rateCounter == null) {
+      RateCounter.addSingleSighting(exceptionRates, exceptionStats.getFirstSeen(), now);
+    } else {
+      rateCounter.addTo(exceptionRates, now);
+    }
+  }
+
+  private static void recordHeavyHitter(HeavyHitters heavyHitters, String key) {
+    if (key != null) {
+      heavyHitters.record(key);
+    }
+  }
+
+  private static Map<String, ExceptionRates> toExceptionRates(
+      Map<String, RateCounter> rateCounters, Instant now) {
+    Map<String, ExceptionRates> exceptionRates = new TreeMap<>();
+    for (Entry<String, RateCounter> rateCounter : rateCounters.entrySet()) {
+      exceptionRates.put(rateCounter.getKey(), rateCounter.getValue().toExceptionRates(now));
+    }
+    return exceptionRates;
+  }
+
+  void setClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  private static long getLastSeenBucket(Instant lastSeen) {
+    if (lastSeen.equals(Instant.MIN)) {
+      return Long.MIN_VALUE;
+    }
+
+    return Math.floorDiv(lastSeen.getEpochSecond(), LAST_SEEN_BUCKET_SECONDS);
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("exceptionmanager.seen.messages", messageExceptionReports, Map::size)
+        .description("Distinct message hashes currently remembered")
+        .register(registry);
+    registerSizeGauge(registry, "seen-exceptions", seenExceptions, Map::size);
+    registerSizeGauge(registry, "message-stats", messageStats, Map::size);
+    registerSizeGauge(registry, "messages-to-skip", messagesToSkipAndSkippingUser, Map::size);
+    registerSizeGauge(registry, "messages-to-peek", messagesToPeek, Set::size);
+    registerSizeGauge(registry, "peeked-messages", peekedMessages, Map::size);
+    registerSizeGauge(registry, "peek-reply-waiters", peekReplyWaiters, Map::size);
+    registerSizeGauge(registry, "skipped-message-hashes", skippedMessageHashes, Set::size);
+    registerSizeGauge(registry, "last-seen-buckets", lastSeenBuckets, Map::size);
+    registerSizeGauge(registry, "held-exception-reports", heldExceptionReports, Set::size);
+    registerSizeGauge(registry, "rule-verdicts", ruleVerdictCache, Map::size);
+    registerSizeGauge(
+        registry, "quarantine-rules", this, store -> store.quarantineRuleIndex.getRuleCount());
+    FunctionCounter.builder(
+            "exceptionmanager.seen.messages.evicted", messagesEvictedByAge, LongAdder::sum)
+        .tag("reason", "age")
+        .description("Message hashes forgotten because they hadn't been seen recently")
+        .register(registry);
+    FunctionCounter.builder(
+            "exceptionmanager.seen.messages.evicted", messagesEvictedBySize, LongAdder::sum)
+        .tag("reason", "size")
+        .description("Message hashes forgotten to stay within the maximum number")
+        .register(registry);
+
+    ruleChangeLock.lock();
+    try {
+      meterRegistry = registry;
+      for (QuarantineRuleExpression ruleExpression : quarantineRuleIndex.getRuleExpressions()) {
+        registerRuleMeters(ruleExpression);
+      }
+    } finally {
+      ruleChangeLock.unlock();
+    }
+  }
+
+  private static <T> void registerSizeGauge(
+      MeterRegistry registry, String collection, T object, ToDoubleFunction<T> size) {
+    Gauge.builder("exceptionmanager.store.size", object, size)
+        .tag("collection", collection)
+        .description("Entries in each of the in-memory collections")
+        .register(registry);
+  }
+
+  private void registerRuleMeters(QuarantineRuleExpression ruleExpression) {
+    MeterRegistry registry = meterRegistry;
+    if (registry == null) {
+      return;
+    }
+
+    String ruleId = String.valueOf(ruleExpression.getRule().getId());
+    FunctionTimer.builder(
+            "exceptionmanager.rule.evaluation",
+            ruleExpression,
+            expression -> expression.getEvaluations().sum(),
+            expression -> expression.getEvaluationNanos().sum(),
+            TimeUnit.NANOSECONDS)
+        .tag("rule", ruleId)
+        .description("Time spent evaluating each quarantine rule, excluding cached verdicts")
+        .register(registry);
+    FunctionCounter.builder(
+            "exceptionmanager.rule.matches",
+            ruleExpression,
+            expression -> expression.getMatchedReports().sum())
+        .tag("rule", ruleId)
+        .description("Exception reports matched by each quarantine rule")
+        .register(registry);
+  }
+
+  private void removeRuleMeters(UUID ruleId) {
+    MeterRegistry registry = meterRegistry;
+    if (registry == null) {
+      return;
+    }
+
+    for (Meter meter :
+        registry
+            .find("exceptionmanager.rule.evaluation")
+            .tag("rule", String.valueOf(ruleId))
+            .meters()) {
+      registry.remove(meter);
+    }
+    for (Meter meter :
+        registry
+            .find("exceptionmanager.rule.matches")
+            .tag("rule", String.valueOf(ruleId))
+            .meters()) {
+      registry.remove(meter);
     }
   }
 
@@ -0,0 +1,121 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import uk.gov.ons.census.exceptionmanager.model.dto.HeavyHitter;
+
+/**
+ * The most often seen keys, such as message hashes or services, found without counting every key
+ * exactly. Every sighting goes into a count-min sketch, which never underestimates a count and is
+ * overestimated by at most about 0.1% of all sightings. Only the keys whose estimates are among the
+ * highest are kept, so the memory used is fixed however many keys are seen.
+ *
+ * <p>Counting a key which is already a candidate, or which doesn't beat the lowest candidate, takes
+ * no lock. Only a key good enough to push out the lowest candidate does, which is rare once the
+ * candidates have settled.
+ */
+class HeavyHitters {
+  static final int CAPACITY = 100;
+  private static final int SKETCH_DEPTH = 4;
+  private static final int SKETCH_WIDTH = 2048;
+  private static final Comparator<HeavyHitter> HIGHEST_FIRST =
+      Comparator.comparingLong(HeavyHitter::getSeenCount)
+          .reversed()
+          .thenComparing(HeavyHitter::getKey);
+  private final AtomicLongArray sketch = new AtomicLongArray(SKETCH_DEPTH * SKETCH_WIDTH);
+  private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+  private final Lock admissionLock = new ReentrantLock();
+  // What a key has to beat to become a candidate, once there are as many as we keep
+  private volatile long admissionThreshold;
+
+  void record(String key) {
+    long estimate = Long.MAX_VALUE;
+    int hash = key.hashCode();
+    for (int row = 0; row < SKETCH_DEPTH; row++) {
+      estimate = Math.min(estimate, sketch.incrementAndGet(getCell(row, hash)));
+    }
+
+    long seenCount = estimate;
+    if (candidates.computeIfPresent(key, (candidate, count) -> Math.max(count, seenCount))
+        != null) {
+      return;
+    }
+
+    if (candidates.size() < CAPACITY || seenCount > admissionThreshold) {
+      admit(key, seenCount);
+    }
+  }
+
+  /** Highest first. Only looks at the candidates, so it takes the same time however much is seen */
+  List<HeavyHitter> getTop(int limit) {
+    List<HeavyHitter> top = new ArrayList<>(candidates.size());
+    for (Entry<String, Long> candidate : candidates.entrySet()) {
+      HeavyHitter heavyHitter = new HeavyHitter();
+      heavyHitter.setKey(candidate.getKey());
+      heavyHitter.setSeenCount(candidate.getValue());
+      top.add(heavyHitter);
+    }
+
+    top.sort(HIGHEST_FIRST);
+    return top.subList(0, Math.min(limit, top.size()));
+  }
+
+  void clear() {
+    admissionLock.lock();
+    try {
+      for (int i = 0; i < sketch.length(); i++) {
+        sketch.set(i, 0);
+      }
+      candidates.clear();
+      admissionThreshold = 0;
+    } finally {
+      admissionLock.unlock();
+    }
+  }
+
+  private void admit(String key, long seenCount) {
+    admissionLock.lock();
+    try {
+      if (candidates.size() >= CAPACITY) {
+        Entry<String, Long> lowest = findLowestCandidate();
+        if (seenCount <= lowest.getValue()) {
+          admissionThreshold = lowest.getValue();
+          return;
+        }
+        candidates.remove(lowest.getKey());
+      }
+
+      candidates.merge(key, seenCount, Math::max);
+
+      if (candidates.size() >= CAPACITY) {
+        admissionThreshold = findLowestCandidate().getValue();
+      }
+    } finally {
+      admissionLock.unlock();
+    }
+  }
+
+  private Entry<String, Long> findLowestCandidate() {
+    Entry<String, Long> lowest = null;
+    for (Entry<String, Long> candidate : candidates.entrySet()) {
+      if (lowest == null || candidate.getValue() < lowest.getValue()) {
+        lowest = candidate;
+      }
+    }
+    return lowest;
+  }
+
+  private static int getCell(int row, int hash) {
+    // A different mix of the hash for each row, so keys which collide in one row rarely do in all
+    int mixedHash = (hash ^ (row * 0x9E3779B9)) * 0x85EBCA6B;
+    mixedHash ^= mixedHash >>> 16;
+    return row * SKETCH_WIDTH + (mixedHash & (SKETCH_WIDTH - 1));
+  }
+}
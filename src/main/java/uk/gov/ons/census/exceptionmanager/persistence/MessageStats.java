@@ -0,0 +1,87 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageSummary;
+import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
+import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionStats;
+
+/** Stats across all the exception reports for one message hash, kept up to date as they're seen */
+class MessageStats {
+  private volatile Instant firstSeen;
+  private volatile Instant lastSeen;
+  private final AtomicInteger seenCount = new AtomicInteger(0);
+  // Only added to when a new exception report turns up, so copying on write is cheap enough
+  private final Set<String> affectedServices = new CopyOnWriteArraySet<>();
+  private final Set<String> affectedSubscriptions = new CopyOnWriteArraySet<>();
+
+  MessageStats(Instant firstSeen) {
+    this.firstSeen = firstSeen;
+    this.lastSeen = firstSeen;
+  }
+
+  static MessageStats of(
+      List<ExceptionReport> exceptionReports, Map<ExceptionReport, ExceptionStats> seenExceptions) {
+    Instant firstSeen = Instant.MAX;
+    for (ExceptionReport exceptionReport : exceptionReports) {
+      ExceptionStats exceptionStats = seenExceptions.get(exceptionReport);
+      if (exceptionStats != null && exceptionStats.getFirstSeen().isBefore(firstSeen)) {
+        firstSeen = exceptionStats.getFirstSeen();
+      }
+    }
+
+    MessageStats messageStats = new MessageStats(firstSeen);
+    for (ExceptionReport exceptionReport : exceptionReports) {
+      ExceptionStats exceptionStats = seenExceptions.get(exceptionReport);
+      if (exceptionStats != null) {
+        messageStats.addExceptionReport(
+            exceptionReport, exceptionStats.getSeenCount().get(), exceptionStats.getLastSeen());
+      }
+    }
+
+    return messageStats;
+  }
+
+  void addExceptionReport(ExceptionReport exceptionReport, int reportSeenCount, Instant seen) {
+    affectedServices.add(exceptionReport.getService());
+    affectedSubscriptions.add(exceptionReport.getSubscription());
+    seenCount.addAndGet(reportSeenCount);
+
+    if (seen.isAfter(lastSeen)) {
+      lastSeen = seen;
+    }
+  }
+
+  /** Adds sightings from before a restart, which may be older than any seen since */
+  void addEarlierSightings(
+      ExceptionReport exceptionReport, int reportSeenCount, Instant firstSeen, Instant lastSeen) {
+    addExceptionReport(exceptionReport, reportSeenCount, lastSeen);
+
+    if (firstSeen.isBefore(this.firstSeen)) {
+      this.firstSeen = firstSeen;
+    }
+  }
+
+  void recordSighting(Instant seen) {
+    seenCount.incrementAndGet();
+    lastSeen = seen;
+  }
+
+  BadMessageSummary toBadMessageSummary(String messageHash) {
+    BadMessageSummary badMessageSummary = new BadMessageSummary();
+    badMessageSummary.setMessageHash(messageHash);
+    badMessageSummary.setFirstSeen(firstSeen);
+    badMessageSummary.setLastSeen(lastSeen);
+    badMessageSummary.setSeenCount(seenCount.get());
+
+    badMessageSummary.setAffectedServices(new HashSet<>(affectedServices));
+    badMessageSummary.setAffectedSubscriptions(new HashSet<>(affectedSubscriptions));
+
+    return badMessageSummary;
+  }
+}
@@ -0,0 +1,87 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.TypedValue;
+import org.springframework.expression.common.ExpressionUtils;
+import org.springframework.expression.spel.CompiledExpression;
+import org.springframework.expression.spel.ast.SpelNodeImpl;
+import org.springframework.expression.spel.standard.SpelCompiler;
+import org.springframework.expression.spel.standard.SpelExpression;
+import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
+import uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule;
+
+@Getter
+class QuarantineRuleExpression {
+  private final AutoQuarantineRule rule;
+  private final SpelExpression expression;
+  private final boolean compileOnFirstUse;
+  private volatile boolean compilationAttempted = false;
+  // Whatever the SpEL compiler made of the expression, or null while it's being interpreted
+  @Getter(AccessLevel.NONE)
+  private volatile CompiledExpression compiledExpression;
+
+  // Adders rather than atomics, so that threads evaluating the same rule don't contend
+  private final LongAdder evaluations = new LongAdder();
+  private final LongAdder evaluationNanos = new LongAdder();
+  private final LongAdder matchedReports = new LongAdder();
+
+  QuarantineRuleExpression(
+      AutoQuarantineRule rule, SpelExpression expression, boolean compileOnFirstUse) {
+    this.rule = rule;
+    this.expression = expression;
+    this.compileOnFirstUse = compileOnFirstUse;
+  }
+
+  /** When the rule expires. The column is nullable, and a rule without an expiry never expires */
+  OffsetDateTime getExpiry() {
+    OffsetDateTime ruleExpiryDateTime = rule.getRuleExpiryDateTime();
+    return ruleExpiryDateTime == null ? OffsetDateTime.MAX : ruleExpiryDateTime;
+  }
+
+  /** Whether the rule is running as compiled code right now, rather than whether it ever was */
+  boolean isCompiled() {
+    return compiledExpression != null;
+  }
+
+  boolean matches(EvaluationContext context, ExceptionReport exceptionReport) {
+    long startTime = System.nanoTime();
+    Boolean result;
+    try {
+      result = evaluate(context, exceptionReport);
+    } finally {
+      evaluationNanos.add(System.nanoTime() - startTime);
+      evaluations.increment();
+    }
+
+    // SpEL can only compile an expression after it has been interpreted successfully at least
+    // once, because that's how it learns the types involved. If it won't compile, keep interpreting
+    if (compileOnFirstUse && !compilationAttempted) {
+      compilationAttempted = true;
+      compiledExpression =
+          SpelCompiler.getCompiler(getClass().getClassLoader())
+              .compile((SpelNodeImpl) expression.getAST());
+    }
+
+    return result != null && result;
+  }
+
+  private Boolean evaluate(EvaluationContext context, ExceptionReport exceptionReport) {
+    CompiledExpression compiled = compiledExpression;
+    if (compiled != null) {
+      try {
+        return ExpressionUtils.convertTypedValue(
+            context, new TypedValue(compiled.getValue(exceptionReport, context)), Boolean.class);
+      } catch (RuntimeException e) {
+        // Compiled code is only good for the types it was compiled against, and can't cope with
+        // things like nulls as well as the interpreter, so go back to interpreting it for good
+        compiledExpression = null;
+      }
+    }
+
+    return expression.getValue(context, exceptionReport, Boolean.class);
+  }
+}
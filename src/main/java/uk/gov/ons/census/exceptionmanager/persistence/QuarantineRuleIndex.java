@@ -0,0 +1,179 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.OpAnd;
+import org.springframework.expression.spel.ast.OpEQ;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.ast.StringLiteral;
+import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
+
+/**
+ * An immutable snapshot of the auto-quarantine rules. Changing the rules means building a new
+ * snapshot and swapping it in, so readers never see a half-built set of rules.
+ *
+ * <p>The rules are bucketed by any top-level equality guard they have on service, subscription or
+ * exception class, so that a report is only evaluated against the rules which could possibly match
+ * it. Rules without a guard are evaluated against every report.
+ *
+ * <p>Expired rules are reaped into a new snapshot in the background. Until that happens, the
+ * earliest expiry tells callers whether any rule in the snapshot might have expired.
+ */
+class QuarantineRuleIndex {
+  enum IndexedField {
+    SERVICE("service") {
+      @Override
+      String getValue(ExceptionReport exceptionReport) {
+        return exceptionReport.getService();
+      }
+    },
+    SUBSCRIPTION("subscription") {
+      @Override
+      String getValue(ExceptionReport exceptionReport) {
+        return exceptionReport.getSubscription();
+      }
+    },
+    EXCEPTION_CLASS("exceptionClass") {
+      @Override
+      String getValue(ExceptionReport exceptionReport) {
+        return exceptionReport.getExceptionClass();
+      }
+    };
+
+    private final String propertyName;
+
+    IndexedField(String propertyName) {
+      this.propertyName = propertyName;
+    }
+
+    abstract String getValue(ExceptionReport exceptionReport);
+  }
+
+  @Getter
+  @AllArgsConstructor
+  static final class Guard {
+    private final IndexedField field;
+    private final String value;
+  }
+
+  @Getter private final List<QuarantineRuleExpression> ruleExpressions;
+  @Getter private final OffsetDateTime earliestExpiry;
+  private final List<QuarantineRuleExpression> unindexedRules = new ArrayList<>();
+  private final Map<IndexedField, Map<String, List<QuarantineRuleExpression>>> indexedRules =
+      new EnumMap<>(IndexedField.class);
+
+  QuarantineRuleIndex(Collection<QuarantineRuleExpression> ruleExpressions) {
+    this.ruleExpressions = List.copyOf(ruleExpressions);
+
+    OffsetDateTime earliestRuleExpiry = OffsetDateTime.MAX;
+    for (QuarantineRuleExpression ruleExpression : this.ruleExpressions) {
+      if (ruleExpression.getExpiry().isBefore(earliestRuleExpiry)) {
+        earliestRuleExpiry = ruleExpression.getExpiry();
+      }
+    }
+    this.earliestExpiry = earliestRuleExpiry;
+
+    for (IndexedField field : IndexedField.values()) {
+      indexedRules.put(field, new HashMap<>());
+    }
+
+    for (QuarantineRuleExpression ruleExpression : this.ruleExpressions) {
+      Optional<Guard> guard = findGuard(ruleExpression.getExpression().getAST());
+
+      if (guard.isPresent()) {
+        indexedRules
+            .get(guard.get().getField())
+            .computeIfAbsent(guard.get().getValue(), key -> new ArrayList<>())
+            .add(ruleExpression);
+      } else {
+        unindexedRules.add(ruleExpression);
+      }
+    }
+  }
+
+  QuarantineRuleIndex withRule(QuarantineRuleExpression ruleExpression) {
+    List<QuarantineRuleExpression> newRuleExpressions = new ArrayList<>(ruleExpressions);
+    newRuleExpressions.add(ruleExpression);
+    return new QuarantineRuleIndex(newRuleExpressions);
+  }
+
+  QuarantineRuleIndex withoutRule(UUID ruleId) {
+    List<QuarantineRuleExpression> newRuleExpressions = new ArrayList<>(ruleExpressions);
+    newRuleExpressions.removeIf(ruleExpression -> ruleId.equals(ruleExpression.getRule().getId()));
+    return new QuarantineRuleIndex(newRuleExpressions);
+  }
+
+  QuarantineRuleIndex withoutExpiredRules(OffsetDateTime now) {
+    if (!now.isAfter(earliestExpiry)) {
+      return this;
+    }
+
+    List<QuarantineRuleExpression> newRuleExpressions = new ArrayList<>(ruleExpressions);
+    newRuleExpressions.removeIf(ruleExpression -> now.isAfter(ruleExpression.getExpiry()));
+    return new QuarantineRuleIndex(newRuleExpressions);
+  }
+
+  int getRuleCount() {
+    return ruleExpressions.size();
+  }
+
+  List<QuarantineRuleExpression> findCandidateRules(ExceptionReport exceptionReport) {
+    List<QuarantineRuleExpression> candidateRules = new ArrayList<>(unindexedRules);
+
+    for (IndexedField field : IndexedField.values()) {
+      candidateRules.addAll(
+          indexedRules
+              .get(field)
+              .getOrDefault(field.getValue(exceptionReport), Collections.emptyList()));
+    }
+
+    return candidateRules;
+  }
+
+  /**
+   * Looks for an equality check on an indexed field which the whole expression depends on, either
+   * because it's the whole expression or because it's one of the top-level 'and' terms.
+   */
+  static Optional<Guard> findGuard(SpelNode node) {
+    if (node instanceof OpAnd) {
+      for (int i = 0; i < node.getChildCount(); i++) {
+        Optional<Guard> guard = findGuard(node.getChild(i));
+        if (guard.isPresent()) {
+          return guard;
+        }
+      }
+    } else if (node instanceof OpEQ) {
+      Optional<Guard> guard = findGuard(node.getChild(0), node.getChild(1));
+      return guard.isPresent() ? guard : findGuard(node.getChild(1), node.getChild(0));
+    }
+
+    return Optional.empty();
+  }
+
+  private static Optional<Guard> findGuard(SpelNode property, SpelNode literal) {
+    if (!(property instanceof PropertyOrFieldReference) || !(literal instanceof StringLiteral)) {
+      return Optional.empty();
+    }
+
+    String propertyName = ((PropertyOrFieldReference) property).getName();
+    for (IndexedField field : IndexedField.values()) {
+      if (field.propertyName.equals(propertyName)) {
+        return Optional.of(
+            new Guard(field, (String) ((StringLiteral) literal).getLiteralValue().getValue()));
+      }
+    }
+
+    return Optional.empty();
+  }
+}
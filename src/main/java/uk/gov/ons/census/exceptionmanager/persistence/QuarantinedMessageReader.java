@@ -0,0 +1,153 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.exceptionmanager.model.dto.SkippedMessage;
+import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessage;
+import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessagePayload;
+import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessagePayloadRepository;
+import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessageRepository;
+
+/**
+ * Reads skipped messages back out of the database, which is the only place they're kept. Listing
+ * them all is done a page of message hashes at a time, so it never needs them all in memory at once
+ * unless the caller wants them that way.
+ */
+@Component
+public class QuarantinedMessageReader {
+  private static final int MESSAGE_HASHES_PER_QUERY = 500;
+
+  private final QuarantinedMessageRepository quarantinedMessageRepository;
+  private final QuarantinedMessagePayloadRepository quarantinedMessagePayloadRepository;
+
+  public QuarantinedMessageReader(
+      QuarantinedMessageRepository quarantinedMessageRepository,
+      QuarantinedMessagePayloadRepository quarantinedMessagePayloadRepository) {
+    this.quarantinedMessageRepository = quarantinedMessageRepository;
+    this.quarantinedMessagePayloadRepository = quarantinedMessagePayloadRepository;
+  }
+
+  /** Null if the message has never been skipped */
+  public List<SkippedMessage> findSkippedMessages(String messageHash) {
+    return findSkippedMessages(List.of(messageHash)).get(messageHash);
+  }
+
+  /** Message hashes in order, starting after the given one, or from the start if it's null */
+  public List<String> findSkippedMessageHashes(String afterMessageHash, int limit) {
+    return quarantinedMessageRepository.findMessageHashesAfter(
+        afterMessageHash == null ? "" : afterMessageHash, Limit.of(limit));
+  }
+
+  /** Skipped messages by hash, in the same order as the hashes, oldest first for each hash */
+  public Map<String, List<SkippedMessage>> findSkippedMessages(List<String> messageHashes) {
+    if (messageHashes.isEmpty()) {
+      return new LinkedHashMap<>();
+    }
+
+    Map<String, byte[]> payloads = new HashMap<>();
+    for (QuarantinedMessagePayload payload :
+        quarantinedMessagePayloadRepository.findAllById(messageHashes)) {
+      payloads.put(payload.getMessageHash(), payload.getMessagePayload());
+    }
+
+    Map<String, List<SkippedMessage>> unorderedResults = new HashMap<>();
+    for (QuarantinedMessage quarantinedMessage :
+        quarantinedMessageRepository.findByMessageHashInOrderBySkippedTimestamp(messageHashes)) {
+      unorderedResults
+          .computeIfAbsent(quarantinedMessage.getMessageHash(), key -> new ArrayList<>())
+          .add(toSkippedMessage(quarantinedMessage, payloads));
+    }
+
+    Map<String, List<SkippedMessage>> results = new LinkedHashMap<>();
+    for (String messageHash : messageHashes) {
+      List<SkippedMessage> skippedMessages = unorderedResults.get(messageHash);
+      if (skippedMessages != null) {
+        results.put(messageHash, skippedMessages);
+      }
+    }
+
+    return results;
+  }
+
+  public Map<String, List<SkippedMessage>> findAllSkippedMessages() {
+    Map<String, List<SkippedMessage>> results = new LinkedHashMap<>();
+    String afterMessageHash = null;
+
+    List<String> messageHashes;
+    do {
+      messageHashes = findSkippedMessageHashes(afterMessageHash, MESSAGE_HASHES_PER_QUERY);
+      results.putAll(findSkippedMessages(messageHashes));
+      afterMessageHash =
+          messageHashes.isEmpty() ? null : messageHashes.get(messageHashes.size() - 1);
+    } while (messageHashes.size() == MESSAGE_HASHES_PER_QUERY);
+
+    return results;
+  }
+
+  /** Every skipped message, read a page at a time as the iterator gets to it */
+  public Iterable<SkippedMessage> iterateAllSkippedMessages() {
+    return SkippedMessageIterator::new;
+  }
+
+  private static SkippedMessage toSkippedMessage(
+      QuarantinedMessage quarantinedMessage, Map<String, byte[]> payloads) {
+    SkippedMessage skippedMessage = new SkippedMessage();
+    skippedMessage.setSkippedTimestamp(
+        quarantinedMessage.getSkippedTimestamp() == null
+            ? null
+            : quarantinedMessage.getSkippedTimestamp().toInstant());
+    skippedMessage.setMessageHash(quarantinedMessage.getMessageHash());
+    skippedMessage.setService(quarantinedMessage.getService());
+    skippedMessage.setSubscription(quarantinedMessage.getSubscription());
+    skippedMessage.setRoutingKey(quarantinedMessage.getRoutingKey());
+    skippedMessage.setContentType(quarantinedMessage.getContentType());
+    skippedMessage.setHeaders(quarantinedMessage.getHeaders());
+
+    // Messages quarantined before payloads were stored separately have their own copy
+    byte[] payload = payloads.get(quarantinedMessage.getMessageHash());
+    skippedMessage.setMessagePayload(
+        payload == null ? quarantinedMessage.getMessagePayload() : payload);
+
+    return skippedMessage;
+  }
+
+  private final class SkippedMessageIterator implements Iterator<SkippedMessage> {
+    private Iterator<SkippedMessage> page = Collections.emptyIterator();
+    private String afterMessageHash;
+    private boolean lastPage = false;
+
+    @Override
+    public boolean hasNext() {
+      while (!page.hasNext() && !lastPage) {
+        List<String> messageHashes =
+            findSkippedMessageHashes(afterMessageHash, MESSAGE_HASHES_PER_QUERY);
+        lastPage = messageHashes.size() < MESSAGE_HASHES_PER_QUERY;
+        if (!messageHashes.isEmpty()) {
+          afterMessageHash = messageHashes.get(messageHashes.size() - 1);
+        }
+
+        page =
+            findSkippedMessages(messageHashes).values().stream().flatMap(List::stream).iterator();
+      }
+
+      return page.hasNext();
+    }
+
+    @Override
+    public SkippedMessage next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      return page.next();
+    }
+  }
+}
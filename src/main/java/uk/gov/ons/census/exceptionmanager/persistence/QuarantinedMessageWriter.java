@@ -0,0 +1,243 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.gov.ons.census.exceptionmanager.model.entity.PayloadCodec;
+import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessage;
+import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessagePayloadRepository;
+
+/**
+ * Writes quarantined messages to the database in batches on a background thread, so that a flood of
+ * them doesn't need a database connection per message. A message is only acknowledged once the
+ * batch it's in has been committed, so anything not acknowledged will be sent again.
+ *
+ * <p>The same message is often quarantined many times over, so payloads are stored once per message
+ * hash, and each quarantined message row only refers to its payload by the hash.
+ */
+@Component
+public class QuarantinedMessageWriter {
+  private static final Logger log = LoggerFactory.getLogger(QuarantinedMessageWriter.class);
+
+  private final EntityManager entityManager;
+  private final QuarantinedMessagePayloadRepository quarantinedMessagePayloadRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final BlockingQueue<PendingWrite> pendingWrites;
+  private final int batchSize;
+  private final long flushIntervalMillis;
+  private final long enqueueTimeoutMillis;
+  private final int compressionThreshold;
+  private final Thread writerThread;
+  private volatile boolean running = true;
+
+  public QuarantinedMessageWriter(
+      EntityManager entityManager,
+      QuarantinedMessagePayloadRepository quarantinedMessagePayloadRepository,
+      PlatformTransactionManager transactionManager,
+      @Value("${quarantined-message-writer.queue-capacity}") int queueCapacity,
+      @Value("${quarantined-message-writer.batch-size}") int batchSize,
+      @Value("${quarantined-message-writer.flush-interval}") long flushIntervalMillis,
+      @Value("${quarantined-message-writer.enqueue-timeout}") long enqueueTimeoutMillis,
+      @Value("${quarantined-message-writer.compression-threshold}") int compressionThreshold) {
+    this.entityManager = entityManager;
+    this.quarantinedMessagePayloadRepository = quarantinedMessagePayloadRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.pendingWrites = new ArrayBlockingQueue<>(queueCapacity);
+    this.batchSize = batchSize;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.enqueueTimeoutMillis = enqueueTimeoutMillis;
+    this.compressionThreshold = compressionThreshold;
+    this.writerThread = new Thread(this::writeBatches, "quarantined-message-writer");
+  }
+
+  @PostConstruct
+  public void start() {
+    writerThread.start();
+  }
+
+  /** Completes once the message has been committed, or fails if it can't be */
+  public CompletableFuture<Void> write(
+      QuarantinedMessage quarantinedMessage, byte[] messagePayload) {
+    // Compress on the caller's thread, so the single writer thread only has to do the inserts
+    PendingWrite pendingWrite =
+        new PendingWrite(
+            quarantinedMessage,
+            messagePayload == null
+                ? null
+                : compressPayload(quarantinedMessage.getContentType(), messagePayload));
+
+    try {
+      // Callers wait for a while when we're behind, rather than us queueing up without limit
+      if (!running
+          || !pendingWrites.offer(pendingWrite, enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        pendingWrite.acknowledgement.completeExceptionally(
+            new IllegalStateException("Too many quarantined messages waiting to be written"));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      pendingWrite.acknowledgement.completeExceptionally(e);
+    }
+
+    // Stopping might have started, and the queue been emptied for the last time, since we checked.
+    // If so, nothing will ever take this off the queue, so take it back off ourselves. If it's
+    // already gone, it's been written or failed by whoever took it
+    if (!running && pendingWrites.remove(pendingWrite)) {
+      pendingWrite.acknowledgement.completeExceptionally(
+          new IllegalStateException("Stopped before quarantined message could be written"));
+    }
+
+    return pendingWrite.acknowledgement;
+  }
+
+  private StoredPayload compressPayload(String contentType, byte[] payload) {
+    PayloadCodec payloadCodec =
+        PayloadCodec.choose(contentType, payload.length, compressionThreshold);
+    byte[] storedPayload = payloadCodec.encode(payload);
+
+    // Some payloads don't shrink, and then there's no point paying to decompress them later
+    if (storedPayload.length >= payload.length) {
+      return new StoredPayload(payload, PayloadCodec.NONE);
+    }
+
+    return new StoredPayload(storedPayload, payloadCodec);
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    // Set before anything else, so that from here on new writes take themselves back off the queue
+    // if they get on it too late. The writer thread empties the queue before it stops
+    running = false;
+    writerThread.join();
+
+    // Anything which slipped in while we were stopping won't be written, so mustn't be acknowledged
+    List<PendingWrite> unwritten = new ArrayList<>();
+    pendingWrites.drainTo(unwritten);
+    for (PendingWrite pendingWrite : unwritten) {
+      pendingWrite.acknowledgement.completeExceptionally(
+          new IllegalStateException("Stopped before quarantined message could be written"));
+    }
+  }
+
+  private void writeBatches() {
+    List<PendingWrite> batch = new ArrayList<>(batchSize);
+
+    while (running || !pendingWrites.isEmpty()) {
+      try {
+        fillBatch(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        running = false;
+      }
+
+      if (!batch.isEmpty()) {
+        writeBatch(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  private void fillBatch(List<PendingWrite> batch) throws InterruptedException {
+    PendingWrite first = pendingWrites.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+    if (first == null) {
+      return;
+    }
+    batch.add(first);
+
+    // Give the batch up to the flush interval to fill up, so that a steady trickle of messages
+    // still gets batched together
+    long flushTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    while (batch.size() < batchSize) {
+      pendingWrites.drainTo(batch, batchSize - batch.size());
+
+      long remainingNanos = flushTime - System.nanoTime();
+      if (batch.size() >= batchSize || remainingNanos <= 0 || !running) {
+        break;
+      }
+
+      PendingWrite next = pendingWrites.poll(remainingNanos, TimeUnit.NANOSECONDS);
+      if (next == null) {
+        break;
+      }
+      batch.add(next);
+    }
+  }
+
+  private void writeBatch(List<PendingWrite> batch) {
+    try {
+      transactionTemplate.executeWithoutResult(
+          transactionStatus -> {
+            // Retries of the same message often end up in the same batch
+            Map<String, StoredPayload> payloads = new LinkedHashMap<>();
+            for (PendingWrite pendingWrite : batch) {
+              if (pendingWrite.storedPayload != null) {
+                payloads.putIfAbsent(
+                    pendingWrite.quarantinedMessage.getMessageHash(), pendingWrite.storedPayload);
+              }
+            }
+            payloads.forEach(
+                (messageHash, storedPayload) ->
+                    quarantinedMessagePayloadRepository.storeIfAbsent(
+                        messageHash, storedPayload.payload, storedPayload.payloadCodec.name()));
+
+            // Always new rows with their own IDs, so persist rather than save, which would look
+            // each one up first to see whether it needs to be merged
+            for (PendingWrite pendingWrite : batch) {
+              entityManager.persist(pendingWrite.quarantinedMessage);
+            }
+            entityManager.flush();
+            entityManager.clear();
+          });
+    } catch (Throwable e) {
+      // Even an Error, as otherwise the only writer thread dies and every later write hangs
+      log.atError()
+          .setMessage("Failed to write quarantined messages")
+          .setCause(e)
+          .addKeyValue("message_count", batch.size())
+          .log();
+
+      for (PendingWrite pendingWrite : batch) {
+        pendingWrite.acknowledgement.completeExceptionally(e);
+      }
+      return;
+    }
+
+    for (PendingWrite pendingWrite : batch) {
+      pendingWrite.acknowledgement.complete(null);
+    }
+  }
+
+  private static final class PendingWrite {
+    private final QuarantinedMessage quarantinedMessage;
+    private final StoredPayload storedPayload;
+    private final CompletableFuture<Void> acknowledgement = new CompletableFuture<>();
+
+    private PendingWrite(QuarantinedMessage quarantinedMessage, StoredPayload storedPayload) {
+      this.quarantinedMessage = quarantinedMessage;
+      this.storedPayload = storedPayload;
+    }
+  }
+
+  private static final class StoredPayload {
+    private final byte[] payload;
+    private final PayloadCodec payloadCodec;
+
+    private StoredPayload(byte[] payload, PayloadCodec payloadCodec) {
+      this.payload = payload;
+      this.payloadCodec = payloadCodec;
+    }
+  }
+}
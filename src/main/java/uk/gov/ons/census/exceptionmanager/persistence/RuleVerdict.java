@@ -0,0 +1,43 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Getter;
+import uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule;
+
+/** The rules which matched an exception report, remembered so that retries can skip evaluation */
+@Getter
+class RuleVerdict {
+  private final QuarantineRuleIndex ruleIndex;
+  private final List<AutoQuarantineRule> matchingRules;
+  private final List<QuarantineRuleExpression> matchingRuleExpressions;
+  private final OffsetDateTime expiry;
+  private final boolean cacheable;
+
+  RuleVerdict(
+      QuarantineRuleIndex ruleIndex,
+      List<QuarantineRuleExpression> matchingRuleExpressions,
+      boolean cacheable) {
+    this.ruleIndex = ruleIndex;
+    this.matchingRuleExpressions = List.copyOf(matchingRuleExpressions);
+    this.cacheable = cacheable;
+
+    // Rules can only stop matching by expiring, so the verdict holds until the first one expires
+    List<AutoQuarantineRule> rules = new ArrayList<>(matchingRuleExpressions.size());
+    OffsetDateTime earliestExpiry = OffsetDateTime.MAX;
+    for (QuarantineRuleExpression ruleExpression : matchingRuleExpressions) {
+      AutoQuarantineRule rule = ruleExpression.getRule();
+      rules.add(rule);
+      if (ruleExpression.getExpiry().isBefore(earliestExpiry)) {
+        earliestExpiry = ruleExpression.getExpiry();
+      }
+    }
+    this.matchingRules = List.copyOf(rules);
+    this.expiry = earliestExpiry;
+  }
+
+  boolean isValidFor(QuarantineRuleIndex currentRuleIndex, OffsetDateTime now) {
+    return ruleIndex == currentRuleIndex && !now.isAfter(expiry);
+  }
+}
@@ -0,0 +1,72 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Message hashes bucketed by the highest seen count of any of their exception reports, on a log2
+ * scale, so that finding the hashes seen at least N times only looks at the buckets which could
+ * hold them.
+ *
+ * <p>A hash only moves up a bucket when one of its reports' seen count reaches a power of two, so
+ * most sightings don't touch the index. Racing sightings can leave a hash in a lower bucket than it
+ * should be too, so callers must check the candidates they get back.
+ */
+class SeenCountIndex {
+  private final List<Set<String>> buckets = new ArrayList<>(Integer.SIZE);
+
+  SeenCountIndex() {
+    for (int i = 0; i < Integer.SIZE; i++) {
+      buckets.add(ConcurrentHashMap.newKeySet());
+    }
+  }
+
+  void add(String messageHash) {
+    buckets.get(0).add(messageHash);
+  }
+
+  void recordSeenCount(String messageHash, int seenCount) {
+    // Only powers of two cross into a new bucket
+    if (seenCount > 1 && (seenCount & (seenCount - 1)) == 0) {
+      int bucket = getBucket(seenCount);
+
+      // Add before removing, so that the hash is never missing from the index
+      buckets.get(bucket).add(messageHash);
+      buckets.get(bucket - 1).remove(messageHash);
+    }
+  }
+
+  void add(String messageHash, int highestSeenCount) {
+    buckets.get(getBucket(Math.max(highestSeenCount, 1))).add(messageHash);
+  }
+
+  void reindex(String messageHash, int highestSeenCount) {
+    remove(messageHash);
+    add(messageHash, highestSeenCount);
+  }
+
+  void remove(String messageHash) {
+    for (Set<String> bucket : buckets) {
+      bucket.remove(messageHash);
+    }
+  }
+
+  void clear() {
+    for (Set<String> bucket : buckets) {
+      bucket.clear();
+    }
+  }
+
+  /** The hashes which might have been seen at least the minimum number of times */
+  List<Collection<String>> findCandidates(int minimumSeenCount) {
+    return new ArrayList<>(
+        buckets.subList(getBucket(Math.max(minimumSeenCount, 1)), buckets.size()));
+  }
+
+  private static int getBucket(int seenCount) {
+    return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(seenCount);
+  }
+}
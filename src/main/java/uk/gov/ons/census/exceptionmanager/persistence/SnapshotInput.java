@@ -0,0 +1,83 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Reads what {@link SnapshotOutput} wrote, from a buffer holding the whole snapshot */
+class SnapshotInput {
+  private final ByteBuffer buffer;
+  private final List<String> strings = new ArrayList<>();
+
+  SnapshotInput(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  int readInt() throws IOException {
+    try {
+      return buffer.getInt();
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Snapshot is truncated", e);
+    }
+  }
+
+  long readLong() throws IOException {
+    try {
+      return buffer.getLong();
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Snapshot is truncated", e);
+    }
+  }
+
+  boolean readBoolean() throws IOException {
+    try {
+      return buffer.get() != 0;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Snapshot is truncated", e);
+    }
+  }
+
+  String readString() throws IOException {
+    int stringId = readInt();
+
+    if (stringId == SnapshotOutput.NULL_STRING) {
+      return null;
+    }
+
+    if (stringId == SnapshotOutput.NEW_STRING) {
+      String value = new String(readBytes(), StandardCharsets.UTF_8);
+      strings.add(value);
+      return value;
+    }
+
+    if (stringId < 0 || stringId >= strings.size()) {
+      throw new IOException("Snapshot refers to a string it hasn't written");
+    }
+
+    return strings.get(stringId);
+  }
+
+  Instant readInstant() throws IOException {
+    try {
+      long epochSecond = buffer.getLong();
+      return Instant.ofEpochSecond(epochSecond, buffer.getInt());
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Snapshot is truncated", e);
+    }
+  }
+
+  byte[] readBytes() throws IOException {
+    int length = readInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IOException("Snapshot is truncated");
+    }
+
+    byte[] value = new byte[length];
+    buffer.get(value);
+    return value;
+  }
+}
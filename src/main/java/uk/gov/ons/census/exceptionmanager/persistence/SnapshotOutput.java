@@ -0,0 +1,92 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the binary snapshot format. Each distinct string is only written out once, and after that
+ * is referred to by number, because services, subscriptions and exception classes repeat across
+ * huge numbers of exception reports.
+ */
+class SnapshotOutput {
+  static final int NULL_STRING = -1;
+  static final int NEW_STRING = -2;
+
+  // Written to a buffer of our own rather than a stream, which would take a lock for every byte
+  private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+  private final WritableByteChannel channel;
+  private final Map<String, Integer> stringIds = new HashMap<>();
+
+  SnapshotOutput(WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  void writeInt(int value) throws IOException {
+    ensureSpace(Integer.BYTES);
+    buffer.putInt(value);
+  }
+
+  void writeLong(long value) throws IOException {
+    ensureSpace(Long.BYTES);
+    buffer.putLong(value);
+  }
+
+  void writeBoolean(boolean value) throws IOException {
+    ensureSpace(1);
+    buffer.put(value ? (byte) 1 : (byte) 0);
+  }
+
+  void writeString(String value) throws IOException {
+    if (value == null) {
+      writeInt(NULL_STRING);
+      return;
+    }
+
+    Integer stringId = stringIds.get(value);
+    if (stringId != null) {
+      writeInt(stringId);
+      return;
+    }
+
+    stringIds.put(value, stringIds.size());
+    writeInt(NEW_STRING);
+    writeBytes(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  void writeInstant(Instant value) throws IOException {
+    ensureSpace(Long.BYTES + Integer.BYTES);
+    buffer.putLong(value.getEpochSecond());
+    buffer.putInt(value.getNano());
+  }
+
+  void writeBytes(byte[] value) throws IOException {
+    writeInt(value.length);
+
+    int offset = 0;
+    while (offset < value.length) {
+      ensureSpace(1);
+      int length = Math.min(buffer.remaining(), value.length - offset);
+      buffer.put(value, offset, length);
+      offset += length;
+    }
+  }
+
+  void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private void ensureSpace(int length) throws IOException {
+    if (buffer.remaining() < length) {
+      flush();
+    }
+  }
+}
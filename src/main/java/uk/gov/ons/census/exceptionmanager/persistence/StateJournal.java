@@ -0,0 +1,351 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records the skip and peek instructions as they're given, so that one given since the last state
+ * snapshot isn't lost if we crash. Replaying the journal over the snapshot gets back to where we
+ * were, and replaying an instruction which made it into the snapshot anyway does no harm.
+ *
+ * <p>The journal is split into numbered segments kept next to the snapshot. A new segment is
+ * started just before each snapshot is written, and the older segments are deleted once it has
+ * been, because everything in them happened before the snapshot started.
+ *
+ * <p>Instructions are only recorded after they've been applied to the store, which is what makes it
+ * safe to delete a segment which is covered by a snapshot. The snapshot records the first segment
+ * it doesn't cover, so that segments left behind by a crash before they could be deleted aren't
+ * replayed over it, where an old reset would undo everything since.
+ */
+@Component
+public class StateJournal {
+  private static final Logger log = LoggerFactory.getLogger(StateJournal.class);
+  private static final byte SKIP = 1;
+  private static final byte PEEK = 2;
+  private static final byte RESET = 3;
+  // Length and checksum of each record, so a record torn by a crash is spotted and ignored
+  private static final int RECORD_HEADER_BYTES = 8;
+  private final Path journalDirectory;
+  private final String segmentPrefix;
+  // Writes are serialised on one lock, and the fsyncs on another, so that while one caller waits
+  // for its fsync everyone else can write theirs, to be made durable together by the next fsync
+  private final Lock writeLock = new ReentrantLock();
+  private final Lock syncLock = new ReentrantLock();
+  private FileChannel channel;
+  private long segment;
+  private long recordsWritten;
+  private long recordsSynced;
+
+  public StateJournal(@Value("${snapshot.file}") String snapshotFile) {
+    if (snapshotFile == null || snapshotFile.isBlank()) {
+      this.journalDirectory = null;
+      this.segmentPrefix = null;
+    } else {
+      Path snapshotPath = Path.of(snapshotFile).toAbsolutePath();
+      this.journalDirectory = snapshotPath.getParent();
+      this.segmentPrefix = snapshotPath.getFileName() + ".journal.";
+    }
+  }
+
+  public boolean isEnabled() {
+    return journalDirectory != null;
+  }
+
+  /**
+   * Applies every instruction in the journal from the given segment on to the store, oldest first,
+   * and then starts a new segment for whatever comes next. Returns the number of instructions
+   * replayed.
+   */
+  public int replay(CachingDataStore cachingDataStore, long firstSegment) throws IOException {
+    if (!isEnabled()) {
+      return 0;
+    }
+
+    int replayedCount = 0;
+
+    syncLock.lock();
+    writeLock.lock();
+    try {
+      for (long existingSegment : findSegments()) {
+        if (existingSegment < firstSegment) {
+          continue; // Already in the snapshot
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segmentPath(existingSegment)));
+        while (buffer.hasRemaining()) {
+          ByteBuffer record = readRecord(buffer);
+          if (record == null) {
+            // Only the last record written before a crash can be torn, so there's nothing after it
+            log.atWarn()
+                .setMessage("Ignoring torn record at end of state journal")
+                .addKeyValue("segment", existingSegment)
+                .log();
+            break;
+          }
+
+          applyRecord(record, cachingDataStore);
+          replayedCount++;
+        }
+      }
+
+      openNextSegment();
+    } finally {
+      writeLock.unlock();
+      syncLock.unlock();
+    }
+
+    return replayedCount;
+  }
+
+  public void recordSkip(String messageHash, String originatingUser) {
+    append(SKIP, messageHash, originatingUser);
+  }
+
+  public void recordPeek(String messageHash) {
+    append(PEEK, messageHash);
+  }
+
+  public void recordReset() {
+    append(RESET);
+  }
+
+  /**
+   * Starts a new segment, returning its number. Everything recorded in the earlier segments has
+   * already been applied to the store, so will be in any snapshot started after this.
+   */
+  public long rotate() throws IOException {
+    if (!isEnabled()) {
+      return 0;
+    }
+
+    syncLock.lock();
+    writeLock.lock();
+    try {
+      openNextSegment();
+      return segment;
+    } finally {
+      writeLock.unlock();
+      syncLock.unlock();
+    }
+  }
+
+  /** Deletes the segments older than the given one, once they're covered by a snapshot */
+  public void deleteSegmentsBefore(long newestSegmentToKeep) throws IOException {
+    if (!isEnabled()) {
+      return;
+    }
+
+    for (long existingSegment : findSegments()) {
+      if (existingSegment < newestSegmentToKeep) {
+        Files.deleteIfExists(segmentPath(existingSegment));
+      }
+    }
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    syncLock.lock();
+    writeLock.lock();
+    try {
+      closeSegment();
+    } finally {
+      writeLock.unlock();
+      syncLock.unlock();
+    }
+  }
+
+  private void append(byte recordType, String... values) {
+    if (!isEnabled()) {
+      return;
+    }
+
+    ByteBuffer record = buildRecord(recordType, values);
+    long recordNumber;
+
+    writeLock.lock();
+    try {
+      if (channel == null) {
+        openNextSegment();
+      }
+
+      while (record.hasRemaining()) {
+        channel.write(record);
+      }
+      recordNumber = ++recordsWritten;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write to state journal", e);
+    } finally {
+      writeLock.unlock();
+    }
+
+    syncLock.lock();
+    try {
+      // Whoever got the lock before us might well have made our record durable along with theirs
+      if (recordsSynced < recordNumber) {
+        long recordsToSync;
+        FileChannel channelToSync;
+
+        writeLock.lock();
+        try {
+          recordsToSync = recordsWritten;
+          channelToSync = channel;
+        } finally {
+          writeLock.unlock();
+        }
+
+        channelToSync.force(false);
+        recordsSynced = recordsToSync;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not sync state journal", e);
+    } finally {
+      syncLock.unlock();
+    }
+  }
+
+  private void openNextSegment() throws IOException {
+    List<Long> existingSegments = findSegments();
+    long nextSegment =
+        Math.max(segment, existingSegments.isEmpty() ? 0 : Collections.max(existingSegments)) + 1;
+    FileChannel nextChannel =
+        FileChannel.open(
+            segmentPath(nextSegment),
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+
+    closeSegment();
+    channel = nextChannel;
+    segment = nextSegment;
+  }
+
+  private void closeSegment() throws IOException {
+    if (channel != null) {
+      channel.force(false);
+      channel.close();
+      channel = null;
+      recordsSynced = recordsWritten;
+    }
+  }
+
+  private List<Long> findSegments() throws IOException {
+    List<Long> segments = new ArrayList<>();
+
+    try (DirectoryStream<Path> segmentPaths =
+        Files.newDirectoryStream(journalDirectory, segmentPrefix + "*")) {
+      for (Path segmentPath : segmentPaths) {
+        String suffix = segmentPath.getFileName().toString().substring(segmentPrefix.length());
+        try {
+          segments.add(Long.parseLong(suffix));
+        } catch (NumberFormatException e) {
+          // Not one of ours
+        }
+      }
+    }
+
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private Path segmentPath(long segmentNumber) {
+    return journalDirectory.resolve(segmentPrefix + segmentNumber);
+  }
+
+  private static ByteBuffer buildRecord(byte recordType, String... values) {
+    List<byte[]> encodedValues = new ArrayList<>();
+    int bodyLength = 1;
+    for (String value : values) {
+      byte[] encodedValue = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+      encodedValues.add(encodedValue);
+      bodyLength += Integer.BYTES + (encodedValue == null ? 0 : encodedValue.length);
+    }
+
+    ByteBuffer body = ByteBuffer.allocate(bodyLength);
+    body.put(recordType);
+    for (byte[] encodedValue : encodedValues) {
+      if (encodedValue == null) {
+        body.putInt(-1);
+      } else {
+        body.putInt(encodedValue.length);
+        body.put(encodedValue);
+      }
+    }
+    body.flip();
+
+    CRC32 checksum = new CRC32();
+    checksum.update(body.duplicate());
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + bodyLength);
+    record.putInt(bodyLength);
+    record.putInt((int) checksum.getValue());
+    record.put(body);
+    record.flip();
+    return record;
+  }
+
+  /** Returns null if what's left of the buffer isn't a whole, intact record */
+  private static ByteBuffer readRecord(ByteBuffer buffer) {
+    if (buffer.remaining() < RECORD_HEADER_BYTES) {
+      return null;
+    }
+
+    int bodyLength = buffer.getInt();
+    int expectedChecksum = buffer.getInt();
+    if (bodyLength < 1 || bodyLength > buffer.remaining()) {
+      return null;
+    }
+
+    ByteBuffer body = buffer.slice(buffer.position(), bodyLength);
+    buffer.position(buffer.position() + bodyLength);
+
+    CRC32 checksum = new CRC32();
+    checksum.update(body.duplicate());
+    return (int) checksum.getValue() == expectedChecksum ? body : null;
+  }
+
+  private static void applyRecord(ByteBuffer record, CachingDataStore cachingDataStore)
+      throws IOException {
+    try {
+      byte recordType = record.get();
+      switch (recordType) {
+        case SKIP -> cachingDataStore.skipMessage(readString(record), readString(record));
+        case PEEK -> cachingDataStore.restorePeekRequest(readString(record));
+        case RESET -> cachingDataStore.reset(Optional.empty());
+        default -> throw new IOException("Unknown state journal record type " + recordType);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("State journal record is malformed", e);
+    }
+  }
+
+  private static String readString(ByteBuffer record) {
+    int length = record.getInt();
+    if (length < 0) {
+      return null;
+    }
+
+    byte[] value = new byte[length];
+    record.get(value);
+    return new String(value, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,142 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps a snapshot of the in-memory state in a file, so that a restart can pick up where it left
+ * off rather than having every poison message retried until the stats and skips are rebuilt.
+ *
+ * <p>Loading only restores the operator's instructions before returning. The exception stats, which
+ * are most of the snapshot, are restored on another thread while the store is already in use.
+ */
+@Component
+public class StateSnapshotStore {
+  private static final Logger log = LoggerFactory.getLogger(StateSnapshotStore.class);
+  private final CachingDataStore cachingDataStore;
+  private final Path snapshotFile;
+  private final Path temporaryFile;
+  private final Lock saveLock = new ReentrantLock();
+  private volatile Thread statsRestoreThread;
+
+  public StateSnapshotStore(
+      CachingDataStore cachingDataStore, @Value("${snapshot.file}") String snapshotFile) {
+    this.cachingDataStore = cachingDataStore;
+
+    if (snapshotFile == null || snapshotFile.isBlank()) {
+      this.snapshotFile = null;
+      this.temporaryFile = null;
+    } else {
+      this.snapshotFile = Path.of(snapshotFile);
+      this.temporaryFile = Path.of(snapshotFile + ".tmp");
+    }
+  }
+
+  public boolean isEnabled() {
+    return snapshotFile != null;
+  }
+
+  /**
+   * Returns the first journal segment to replay over the loaded snapshot, or nothing if there was
+   * no snapshot to load
+   */
+  public OptionalLong load() throws IOException {
+    if (!isEnabled()) {
+      return OptionalLong.empty();
+    }
+
+    // Mapped rather than read, so the snapshot is paged straight in from the file. The mapping
+    // outlives the channel, so the stats can still be read from it once we've returned
+    SnapshotInput snapshotInput;
+    try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+      snapshotInput = new SnapshotInput(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+    } catch (NoSuchFileException e) {
+      return OptionalLong.empty();
+    }
+
+    long firstJournalSegment = cachingDataStore.readSnapshot(snapshotInput);
+
+    statsRestoreThread = new Thread(() -> restoreStats(snapshotInput), "snapshot-stats-restorer");
+    statsRestoreThread.setDaemon(true);
+    statsRestoreThread.start();
+
+    return OptionalLong.of(firstJournalSegment);
+  }
+
+  /** Waits for the exception stats from a loaded snapshot to be restored, if they still are */
+  public void awaitStatsRestored() throws InterruptedException {
+    Thread restoreThread = statsRestoreThread;
+    if (restoreThread != null) {
+      restoreThread.join();
+    }
+  }
+
+  private void restoreStats(SnapshotInput snapshotInput) {
+    long startTime = System.nanoTime();
+    try {
+      int restoredCount = cachingDataStore.restoreSnapshotStats(snapshotInput);
+      log.atInfo()
+          .setMessage("Restored exception stats from state snapshot")
+          .addKeyValue("exception_reports", restoredCount)
+          .addKeyValue("duration_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime))
+          .log();
+    } catch (IOException | RuntimeException e) {
+      log.atWarn()
+          .setMessage("Could not restore all the exception stats from state snapshot")
+          .setCause(e)
+          .log();
+    }
+  }
+
+  /** Everything in the journal segments before the given one must already be in the store */
+  public void save(long firstJournalSegment) throws IOException {
+    if (!isEnabled()) {
+      return;
+    }
+
+    // Otherwise the stats not restored yet would be missing from the new snapshot
+    try {
+      awaitStatsRestored();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for the last snapshot to be restored", e);
+    }
+
+    saveLock.lock();
+    try {
+      // Write it all somewhere else first, so that a crash part way through leaves the last good
+      // snapshot where it was
+      try (FileChannel channel =
+          FileChannel.open(
+              temporaryFile,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        cachingDataStore.writeSnapshot(new SnapshotOutput(channel), firstJournalSegment);
+        channel.force(true);
+      }
+
+      Files.move(
+          temporaryFile,
+          snapshotFile,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      saveLock.unlock();
+    }
+  }
+}
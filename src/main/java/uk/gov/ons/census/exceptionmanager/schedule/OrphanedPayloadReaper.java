@@ -0,0 +1,44 @@
+package uk.gov.ons.census.exceptionmanager.schedule;
+
+import java.time.Clock;
+import java.time.OffsetDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessagePayloadRepository;
+
+@Component
+public class OrphanedPayloadReaper {
+  private static final Logger log = LoggerFactory.getLogger(OrphanedPayloadReaper.class);
+  private final QuarantinedMessagePayloadRepository quarantinedMessagePayloadRepository;
+  private final long gracePeriodSeconds;
+  private Clock clock = Clock.systemUTC();
+
+  public OrphanedPayloadReaper(
+      QuarantinedMessagePayloadRepository quarantinedMessagePayloadRepository,
+      @Value("${quarantined-message-writer.orphaned-payload-grace-period}")
+          long gracePeriodSeconds) {
+    this.quarantinedMessagePayloadRepository = quarantinedMessagePayloadRepository;
+    this.gracePeriodSeconds = gracePeriodSeconds;
+  }
+
+  @Scheduled(fixedDelayString = "${quarantined-message-writer.orphaned-payload-reaper-interval}")
+  public void reapOrphanedPayloads() {
+    int reapedPayloadCount =
+        quarantinedMessagePayloadRepository.deleteUnreferencedPayloads(
+            OffsetDateTime.now(clock).minusSeconds(gracePeriodSeconds));
+
+    if (reapedPayloadCount > 0) {
+      log.atInfo()
+          .setMessage("Removed payloads no longer referenced by any quarantined message")
+          .addKeyValue("payload_count", reapedPayloadCount)
+          .log();
+    }
+  }
+
+  void setClock(Clock clock) {
+    this.clock = clock;
+  }
+}
@@ -0,0 +1,29 @@
+package uk.gov.ons.census.exceptionmanager.schedule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.exceptionmanager.persistence.CachingDataStore;
+
+@Component
+public class QuarantineRuleReaper {
+  private static final Logger log = LoggerFactory.getLogger(QuarantineRuleReaper.class);
+  private final CachingDataStore cachingDataStore;
+
+  public QuarantineRuleReaper(CachingDataStore cachingDataStore) {
+    this.cachingDataStore = cachingDataStore;
+  }
+
+  @Scheduled(fixedDelayString = "${general-config.expired-rule-reaper-interval}")
+  public void reapExpiredRules() {
+    int reapedRuleCount = cachingDataStore.removeExpiredQuarantineRules();
+
+    if (reapedRuleCount > 0) {
+      log.atInfo()
+          .setMessage("Removed expired auto-quarantine rules")
+          .addKeyValue("rule_count", reapedRuleCount)
+          .log();
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package uk.gov.ons.census.exceptionmanager.schedule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.exceptionmanager.persistence.CachingDataStore;
+
+@Component
+public class SeenMessageEvictor {
+  private static final Logger log = LoggerFactory.getLogger(SeenMessageEvictor.class);
+  private final CachingDataStore cachingDataStore;
+
+  public SeenMessageEvictor(CachingDataStore cachingDataStore) {
+    this.cachingDataStore = cachingDataStore;
+  }
+
+  @Scheduled(fixedDelayString = "${general-config.seen-message-eviction-interval}")
+  public void evictSeenMessages() {
+    int evictedMessageCount = cachingDataStore.evictSeenMessages();
+
+    if (evictedMessageCount > 0) {
+      log.atInfo()
+          .setMessage("Evicted seen messages")
+          .addKeyValue("message_hash_count", evictedMessageCount)
+          .log();
+    }
+  }
+}
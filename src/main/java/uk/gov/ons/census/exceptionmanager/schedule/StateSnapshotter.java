@@ -0,0 +1,86 @@
+package uk.gov.ons.census.exceptionmanager.schedule;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.exceptionmanager.persistence.CachingDataStore;
+import uk.gov.ons.census.exceptionmanager.persistence.StateJournal;
+import uk.gov.ons.census.exceptionmanager.persistence.StateSnapshotStore;
+
+@Component
+public class StateSnapshotter {
+  private static final Logger log = LoggerFactory.getLogger(StateSnapshotter.class);
+  private final StateSnapshotStore stateSnapshotStore;
+  private final StateJournal stateJournal;
+  private final CachingDataStore cachingDataStore;
+
+  public StateSnapshotter(
+      StateSnapshotStore stateSnapshotStore,
+      StateJournal stateJournal,
+      CachingDataStore cachingDataStore) {
+    this.stateSnapshotStore = stateSnapshotStore;
+    this.stateJournal = stateJournal;
+    this.cachingDataStore = cachingDataStore;
+  }
+
+  @PostConstruct
+  public void loadSnapshot() {
+    if (!stateSnapshotStore.isEnabled()) {
+      return;
+    }
+
+    // Unless a snapshot says otherwise, the whole journal is needed
+    long firstJournalSegment = 0;
+    long startTime = System.nanoTime();
+    try {
+      OptionalLong snapshotJournalSegment = stateSnapshotStore.load();
+      if (snapshotJournalSegment.isPresent()) {
+        firstJournalSegment = snapshotJournalSegment.getAsLong();
+        log.atInfo()
+            .setMessage("Loaded state snapshot")
+            .addKeyValue(
+                "duration_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime))
+            .log();
+      }
+    } catch (IOException | RuntimeException e) {
+      // Better to start from nothing, as we would have done without a snapshot, than not start
+      log.atWarn().setMessage("Could not load state snapshot, starting empty").setCause(e).log();
+    }
+
+    // Replayed even if the snapshot couldn't be loaded, so that at least the recent skips survive
+    try {
+      int replayedCount = stateJournal.replay(cachingDataStore, firstJournalSegment);
+      log.atInfo()
+          .setMessage("Replayed state journal")
+          .addKeyValue("instructions", replayedCount)
+          .log();
+    } catch (IOException | RuntimeException e) {
+      log.atError().setMessage("Could not replay state journal").setCause(e).log();
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${snapshot.interval}")
+  public void saveSnapshot() {
+    try {
+      // Everything journaled before the new segment is already in the store, so will be in the
+      // snapshot, and the older segments aren't needed once it's safely written. The snapshot says
+      // so too, in case we crash before they're deleted
+      long journalSegment = stateJournal.rotate();
+      stateSnapshotStore.save(journalSegment);
+      stateJournal.deleteSegmentsBefore(journalSegment);
+    } catch (IOException | RuntimeException e) {
+      log.atError().setMessage("Could not save state snapshot").setCause(e).log();
+    }
+  }
+
+  @PreDestroy
+  public void saveFinalSnapshot() {
+    saveSnapshot();
+  }
+}
@@ -6,25 +6,40 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.gov.ons.census.exceptionmanager.helper.PageHelper;
 import uk.gov.ons.census.exceptionmanager.model.dto.AutoQuarantineRule;
+import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageRates;
 import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageReport;
 import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageSummary;
-import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
-import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionStats;
+import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionRates;
 import uk.gov.ons.census.exceptionmanager.model.dto.SkipMessageRequest;
 import uk.gov.ons.census.exceptionmanager.model.dto.SkippedMessage;
+import uk.gov.ons.census.exceptionmanager.model.dto.TopBadMessages;
 import uk.gov.ons.census.exceptionmanager.persistence.CachingDataStore;
+import uk.gov.ons.census.exceptionmanager.persistence.QuarantinedMessageReader;
+import uk.gov.ons.census.exceptionmanager.persistence.StateJournal;
 
 public class AdminEndpointTest {
 
@@ -34,7 +49,8 @@ public class AdminEndpointTest {
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
     Set testSet = Collections.emptySet();
     when(cachingDataStore.getSeenMessageHashes()).thenReturn(testSet);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
 
     // When
     ResponseEntity<Set<String>> actualResponse = underTest.getBadMessages(-1);
@@ -49,7 +65,8 @@ public class AdminEndpointTest {
     // Given
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
     when(cachingDataStore.getSeenMessageCount()).thenReturn(10);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
 
     // When
     ResponseEntity<Integer> actualResponse = underTest.getBadMessagesCount();
@@ -59,45 +76,214 @@ public class AdminEndpointTest {
     verify(cachingDataStore).getSeenMessageCount();
   }
 
+  @Test
+  public void testGetBadMessageRates() {
+    // Given
+    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    BadMessageRates badMessageRates = new BadMessageRates();
+    badMessageRates.setServices(Map.of("test service", new ExceptionRates()));
+    when(cachingDataStore.getBadMessageRates()).thenReturn(badMessageRates);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
+
+    // When
+    ResponseEntity<BadMessageRates> actualResponse = underTest.getBadMessageRates();
+
+    // Then
+    assertThat(actualResponse.getBody()).isEqualTo(badMessageRates);
+    verify(cachingDataStore).getBadMessageRates();
+  }
+
+  @Test
+  public void testGetTopBadMessages() {
+    // Given
+    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    TopBadMessages topBadMessages = new TopBadMessages();
+    when(cachingDataStore.getMaxTopBadMessages()).thenReturn(100);
+    when(cachingDataStore.getTopBadMessages(10)).thenReturn(topBadMessages);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
+
+    // When
+    ResponseEntity<TopBadMessages> actualResponse = underTest.getTopBadMessages(10);
+
+    // Then
+    assertThat(actualResponse.getBody()).isSameAs(topBadMessages);
+    assertThat(underTest.getTopBadMessages(0).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    assertThat(underTest.getTopBadMessages(101).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+  }
+
   @Test
   public void getBadMessagesSummary() {
     // Given
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
-    Set testSet = Set.of("test message hash");
-    ExceptionReport exceptionReport = new ExceptionReport();
-    exceptionReport.setSubscription("test subscription");
-    exceptionReport.setService("test service");
-    ExceptionStats exceptionStats = new ExceptionStats();
-    exceptionStats.getSeenCount().set(666);
-    BadMessageReport badMessageReport = new BadMessageReport();
-    badMessageReport.setExceptionReport(exceptionReport);
-    badMessageReport.setStats(exceptionStats);
-    List<BadMessageReport> badMessageReportList = List.of(badMessageReport);
+    Set testSet = Set.of("test message hash", "evicted message hash");
+    BadMessageSummary badMessageSummary = new BadMessageSummary();
+    badMessageSummary.setMessageHash("test message hash");
+    badMessageSummary.setSeenCount(666);
     when(cachingDataStore.getSeenMessageHashes()).thenReturn(testSet);
-    when(cachingDataStore.getBadMessageReports(anyString())).thenReturn(badMessageReportList);
+    when(cachingDataStore.getBadMessageSummary(eq("test message hash")))
+        .thenReturn(badMessageSummary);
     when(cachingDataStore.isQuarantined(anyString())).thenReturn(true);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
 
     // When
     ResponseEntity<List<BadMessageSummary>> actualResponse = underTest.getBadMessagesSummary(-1);
 
     // Then
     verify(cachingDataStore).getSeenMessageHashes();
-    verify(cachingDataStore).getBadMessageReports(eq("test message hash"));
+    verify(cachingDataStore).getBadMessageSummary(eq("test message hash"));
     verify(cachingDataStore).isQuarantined(eq("test message hash"));
 
     assertThat(actualResponse.getBody()).isNotNull();
     assertThat(actualResponse.getBody().size()).isEqualTo(1);
     BadMessageSummary actualBadMessageSummary = actualResponse.getBody().get(0);
-    assertThat(actualBadMessageSummary.getAffectedSubscriptions())
-        .containsOnly("test subscription");
-    assertThat(actualBadMessageSummary.getAffectedServices()).containsOnly("test service");
-    assertThat(actualBadMessageSummary.getFirstSeen()).isEqualTo(exceptionStats.getFirstSeen());
-    assertThat(actualBadMessageSummary.getLastSeen()).isEqualTo(exceptionStats.getLastSeen());
+    assertThat(actualBadMessageSummary.getMessageHash()).isEqualTo("test message hash");
     assertThat(actualBadMessageSummary.getSeenCount()).isEqualTo(666);
     assertThat(actualBadMessageSummary.isQuarantined()).isTrue();
   }
 
+  @Test
+  public void testGetBadMessagesSummaryPage() {
+    // Given
+    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    when(cachingDataStore.getSeenMessageHashes()).thenReturn(Set.of("hash 1", "hash 2", "hash 3"));
+    when(cachingDataStore.getBadMessageSummary(eq("hash 1")))
+        .thenReturn(buildBadMessageSummary("hash 1", 5, Instant.parse("2020-01-01T00:00:03Z")));
+    when(cachingDataStore.getBadMessageSummary(eq("hash 2")))
+        .thenReturn(buildBadMessageSummary("hash 2", 10, Instant.parse("2020-01-01T00:00:01Z")));
+    when(cachingDataStore.getBadMessageSummary(eq("hash 3")))
+        .thenReturn(buildBadMessageSummary("hash 3", 1, Instant.parse("2020-01-01T00:00:02Z")));
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
+
+    // When
+    ResponseEntity<List<BadMessageSummary>> firstPage =
+        underTest.getBadMessagesSummaryPage(-1, 2, null, "seenCount");
+    String cursor = firstPage.getHeaders().getFirst("X-Next-Cursor");
+    ResponseEntity<List<BadMessageSummary>> secondPage =
+        underTest.getBadMessagesSummaryPage(-1, 2, cursor, "seenCount");
+    ResponseEntity<List<String>> lastSeenPage =
+        underTest.getBadMessagesPage(-1, 5, null, "lastSeen");
+
+    // Then
+    assertThat(firstPage.getBody())
+        .extracting(BadMessageSummary::getMessageHash)
+        .containsExactly("hash 2", "hash 1");
+    assertThat(cursor).isNotNull();
+    assertThat(secondPage.getBody())
+        .extracting(BadMessageSummary::getMessageHash)
+        .containsExactly("hash 3");
+    assertThat(secondPage.getHeaders().containsKey("X-Next-Cursor")).isFalse();
+    assertThat(lastSeenPage.getBody()).containsExactly("hash 1", "hash 3", "hash 2");
+  }
+
+  @Test
+  public void testGetBadMessagesSummaryPageRejectsBadParameters() {
+    // Given
+    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
+
+    // When, then
+    assertThat(underTest.getBadMessagesSummaryPage(-1, 10, null, "noodles").getStatusCode())
+        .isEqualTo(HttpStatus.BAD_REQUEST);
+    assertThat(underTest.getBadMessagesSummaryPage(-1, 10, "noodles", "lastSeen").getStatusCode())
+        .isEqualTo(HttpStatus.BAD_REQUEST);
+    assertThat(underTest.getBadMessagesSummaryPage(-1, 0, null, "lastSeen").getStatusCode())
+        .isEqualTo(HttpStatus.BAD_REQUEST);
+    assertThat(underTest.getBadMessagesPage(-1, 10, null, "noodles").getStatusCode())
+        .isEqualTo(HttpStatus.BAD_REQUEST);
+  }
+
+  @Test
+  public void testPagesRejectHugeLimits() {
+    // Given
+    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
+
+    // When, then
+    for (int limit : new int[] {PageHelper.MAX_PAGE_SIZE + 1, 500000000, Integer.MAX_VALUE}) {
+      assertThat(underTest.getBadMessagesSummaryPage(-1, limit, null, "lastSeen").getStatusCode())
+          .isEqualTo(HttpStatus.BAD_REQUEST);
+      assertThat(underTest.getBadMessagesPage(-1, limit, null, "lastSeen").getStatusCode())
+          .isEqualTo(HttpStatus.BAD_REQUEST);
+      assertThat(underTest.getSkippedMessagesPage(limit, null).getStatusCode())
+          .isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+    verifyNoInteractions(cachingDataStore);
+  }
+
+  @Test
+  public void testFindPageWithHugeLimit() {
+    List<Integer> page =
+        PageHelper.findPage(List.of(3, 1, 2), Comparator.naturalOrder(), 1, Integer.MAX_VALUE);
+
+    assertThat(page).containsExactly(2, 3);
+  }
+
+  @Test
+  public void testStreamBadMessagesSummary() throws Exception {
+    // Given
+    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    when(cachingDataStore.getSeenMessageHashes()).thenReturn(Set.of("hash 1", "hash 2"));
+    when(cachingDataStore.getBadMessageSummary(eq("hash 1")))
+        .thenReturn(buildBadMessageSummary("hash 1", 5, Instant.parse("2020-01-01T00:00:03Z")));
+    when(cachingDataStore.getBadMessageSummary(eq("hash 2")))
+        .thenReturn(buildBadMessageSummary("hash 2", 10, Instant.parse("2020-01-01T00:00:01Z")));
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
+
+    // When
+    ResponseEntity<StreamingResponseBody> actualResponse =
+        underTest.streamBadMessagesSummary(-1, "seenCount");
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    actualResponse.getBody().writeTo(outputStream);
+
+    // Then
+    assertThat(actualResponse.getHeaders().getContentType())
+        .isEqualTo(MediaType.APPLICATION_NDJSON);
+    String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+    assertThat(lines).hasSize(2);
+    assertThat(lines[0]).contains("\"messageHash\":\"hash 2\"");
+    assertThat(lines[1]).contains("\"messageHash\":\"hash 1\"");
+  }
+
+  @Test
+  public void testGetSkippedMessagesPage() {
+    // Given
+    QuarantinedMessageReader quarantinedMessageReader = mock(QuarantinedMessageReader.class);
+    SkippedMessage skippedMessage = new SkippedMessage();
+    when(quarantinedMessageReader.findSkippedMessageHashes(null, 2))
+        .thenReturn(List.of("hash 1", "hash 2"));
+    when(quarantinedMessageReader.findSkippedMessageHashes("hash 2", 2))
+        .thenReturn(List.of("hash 3"));
+    when(quarantinedMessageReader.findSkippedMessages(List.of("hash 1", "hash 2")))
+        .thenReturn(Map.of("hash 1", List.of(skippedMessage), "hash 2", List.of(skippedMessage)));
+    when(quarantinedMessageReader.findSkippedMessages(List.of("hash 3")))
+        .thenReturn(Map.of("hash 3", List.of(skippedMessage)));
+    AdminEndpoint underTest =
+        new AdminEndpoint(
+            mock(CachingDataStore.class),
+            quarantinedMessageReader,
+            null,
+            new SimpleMeterRegistry(),
+            500);
+
+    // When
+    ResponseEntity<Map<String, List<SkippedMessage>>> firstPage =
+        underTest.getSkippedMessagesPage(2, null);
+    ResponseEntity<Map<String, List<SkippedMessage>>> secondPage =
+        underTest.getSkippedMessagesPage(2, firstPage.getHeaders().getFirst("X-Next-Cursor"));
+
+    // Then
+    assertThat(firstPage.getBody()).containsOnlyKeys("hash 1", "hash 2");
+    assertThat(secondPage.getBody()).containsOnlyKeys("hash 3");
+    assertThat(secondPage.getHeaders().containsKey("X-Next-Cursor")).isFalse();
+  }
+
   @Test
   public void testGetBadMessageDetails() {
     // Given
@@ -105,7 +291,8 @@ public class AdminEndpointTest {
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
     List testList = Collections.emptyList();
     when(cachingDataStore.getBadMessageReports(anyString())).thenReturn(testList);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
 
     // When
     ResponseEntity<List<BadMessageReport>> actualResponse =
@@ -122,7 +309,9 @@ public class AdminEndpointTest {
     String testMessageHash = "test message hash";
     String testOriginatingUser = "foo@bar.com";
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    StateJournal stateJournal = mock(StateJournal.class);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, stateJournal, new SimpleMeterRegistry(), 500);
 
     // When
     SkipMessageRequest skipMessageRequest = new SkipMessageRequest();
@@ -132,6 +321,7 @@ public class AdminEndpointTest {
 
     // Then
     verify(cachingDataStore).skipMessage(eq(testMessageHash), eq(testOriginatingUser));
+    verify(stateJournal).recordSkip(eq(testMessageHash), eq(testOriginatingUser));
   }
 
   @Test
@@ -139,41 +329,40 @@ public class AdminEndpointTest {
     // Given
     String testMessageHash = "test message hash";
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
-    byte[] testPeekedMessageBody = "test message body".getBytes();
-    when(cachingDataStore.getPeekedMessage(anyString()))
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(null)
-        .thenReturn(testPeekedMessageBody);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    CompletableFuture<byte[]> peekReplyWaiter = new CompletableFuture<>();
+    when(cachingDataStore.peekMessage(anyString())).thenReturn(peekReplyWaiter);
+    StateJournal stateJournal = mock(StateJournal.class);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, stateJournal, new SimpleMeterRegistry(), 500);
 
     // When
-    ResponseEntity<String> actualResponse = underTest.peekMessage(testMessageHash);
+    DeferredResult<ResponseEntity<String>> actualResponse = underTest.peekMessage(testMessageHash);
 
     // Then
-    assertThat(actualResponse.getBody()).isEqualTo(new String(testPeekedMessageBody));
+    assertThat(actualResponse.hasResult()).isFalse();
     verify(cachingDataStore).peekMessage(eq(testMessageHash));
+    verify(stateJournal).recordPeek(eq(testMessageHash));
+
+    byte[] testPeekedMessageBody = "test message body".getBytes(StandardCharsets.UTF_8);
+    peekReplyWaiter.complete(testPeekedMessageBody);
+
+    assertThat(((ResponseEntity<String>) actualResponse.getResult()).getBody())
+        .isEqualTo("test message body");
   }
 
   @Test
   public void testGetAllSkippedMessages() {
     // Given
-    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    QuarantinedMessageReader quarantinedMessageReader = mock(QuarantinedMessageReader.class);
     Map testMap = Collections.emptyMap();
-    when(cachingDataStore.getAllSkippedMessages()).thenReturn(testMap);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    when(quarantinedMessageReader.findAllSkippedMessages()).thenReturn(testMap);
+    AdminEndpoint underTest =
+        new AdminEndpoint(
+            mock(CachingDataStore.class),
+            quarantinedMessageReader,
+            null,
+            new SimpleMeterRegistry(),
+            500);
 
     // When
     ResponseEntity<Map<String, List<SkippedMessage>>> actualResponse =
@@ -181,17 +370,23 @@ public class AdminEndpointTest {
 
     // Then
     assertThat(actualResponse.getBody()).isEqualTo(testMap);
-    verify(cachingDataStore).getAllSkippedMessages();
+    verify(quarantinedMessageReader).findAllSkippedMessages();
   }
 
   @Test
   public void testGetSkippedMessage() {
     // Given
     String testMessageHash = "test message hash";
-    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    QuarantinedMessageReader quarantinedMessageReader = mock(QuarantinedMessageReader.class);
     List testList = Collections.emptyList();
-    when(cachingDataStore.getSkippedMessages(anyString())).thenReturn(testList);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    when(quarantinedMessageReader.findSkippedMessages(anyString())).thenReturn(testList);
+    AdminEndpoint underTest =
+        new AdminEndpoint(
+            mock(CachingDataStore.class),
+            quarantinedMessageReader,
+            null,
+            new SimpleMeterRegistry(),
+            500);
 
     // When
     ResponseEntity<List<SkippedMessage>> actualResponse =
@@ -199,27 +394,31 @@ public class AdminEndpointTest {
 
     // Then
     assertThat(actualResponse.getBody()).isEqualTo(testList);
-    verify(cachingDataStore).getSkippedMessages(eq(testMessageHash));
+    verify(quarantinedMessageReader).findSkippedMessages(eq(testMessageHash));
   }
 
   @Test
   public void testReset() {
     // Given
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    StateJournal stateJournal = mock(StateJournal.class);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, stateJournal, new SimpleMeterRegistry(), 500);
 
     // When
     underTest.reset(Optional.empty());
 
     // Then
     verify(cachingDataStore).reset(Optional.empty());
+    verify(stateJournal).recordReset();
   }
 
   @Test
   public void testAddQuarantineRule() {
     // Given
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
 
     // When
     AutoQuarantineRule autoQuarantineRule = new AutoQuarantineRule();
@@ -237,7 +436,8 @@ public class AdminEndpointTest {
   public void testDeleteQuarantineRule() {
     // Given
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
 
     // When
     underTest.deleteQuarantineRules("test id");
@@ -252,10 +452,14 @@ public class AdminEndpointTest {
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
     uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule autoQuarantineRule =
         new uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule();
+    autoQuarantineRule.setId(UUID.randomUUID());
     autoQuarantineRule.setExpression("true == true");
     when(cachingDataStore.getQuarantineRules())
         .thenReturn(Collections.singletonList(autoQuarantineRule));
-    AdminEndpoint underTest = new AdminEndpoint(cachingDataStore, 500);
+    when(cachingDataStore.getCompiledQuarantineRuleIds())
+        .thenReturn(Set.of(autoQuarantineRule.getId()));
+    AdminEndpoint underTest =
+        new AdminEndpoint(cachingDataStore, null, null, new SimpleMeterRegistry(), 500);
 
     // When
     ResponseEntity<List<AutoQuarantineRule>> quarantineRulesResponse =
@@ -264,8 +468,18 @@ public class AdminEndpointTest {
     // Then
     AutoQuarantineRule expectedAutoQuarantineRule = new AutoQuarantineRule();
     expectedAutoQuarantineRule.setExpression("true == true");
+    expectedAutoQuarantineRule.setCompiled(true);
     assertThat(quarantineRulesResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
     assertThat(quarantineRulesResponse.getBody().size()).isEqualTo(1);
     assertThat(quarantineRulesResponse.getBody().get(0)).isEqualTo(expectedAutoQuarantineRule);
   }
+
+  private BadMessageSummary buildBadMessageSummary(
+      String messageHash, int seenCount, Instant lastSeen) {
+    BadMessageSummary badMessageSummary = new BadMessageSummary();
+    badMessageSummary.setMessageHash(messageHash);
+    badMessageSummary.setSeenCount(seenCount);
+    badMessageSummary.setLastSeen(lastSeen);
+    return badMessageSummary;
+  }
 }
@@ -31,6 +31,7 @@ import uk.gov.ons.census.exceptionmanager.model.dto.Response;
 import uk.gov.ons.census.exceptionmanager.model.dto.SkippedMessage;
 import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessage;
 import uk.gov.ons.census.exceptionmanager.model.repository.AutoQuarantineRuleRepository;
+import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessagePayloadRepository;
 import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessageRepository;
 import uk.gov.ons.census.exceptionmanager.persistence.CachingDataStore;
 
@@ -51,11 +52,14 @@ public class ReportingEndpointIT {
   @Autowired private QuarantinedMessageRepository quarantinedMessageRepository;
   @Autowired private AutoQuarantineRuleRepository autoQuarantineRuleRepository;
 
+  @Autowired private QuarantinedMessagePayloadRepository quarantinedMessagePayloadRepository;
+
   @LocalServerPort private int port;
 
   @BeforeEach
   public void setUp() {
     quarantinedMessageRepository.deleteAllInBatch();
+    quarantinedMessagePayloadRepository.deleteAllInBatch();
     cachingDataStore.reset(Optional.empty());
     autoQuarantineRuleRepository.deleteAllInBatch();
   }
@@ -159,6 +163,61 @@ public class ReportingEndpointIT {
     assertThat(cachingDataStore.getBadMessageReports(TEST_MESSAGE_HASH).size()).isEqualTo(1);
   }
 
+  @Test
+  public void testReportExceptions() throws Exception {
+    AutoQuarantineRule autoQuarantineRule = new AutoQuarantineRule();
+    autoQuarantineRule.setExpression("exceptionMessage.contains('quarantine_me')");
+    autoQuarantineRule.setQuarantine(true);
+    autoQuarantineRule.setRuleExpiryDateTime(OffsetDateTime.now().plusMinutes(1));
+
+    ExceptionReport exceptionReportOne = new ExceptionReport();
+    exceptionReportOne.setMessageHash(TEST_MESSAGE_HASH);
+    exceptionReportOne.setService("test service");
+    exceptionReportOne.setSubscription("test subscription");
+    exceptionReportOne.setExceptionClass("test class");
+    exceptionReportOne.setExceptionMessage("test quarantine_me message");
+
+    ExceptionReport exceptionReportTwo = new ExceptionReport();
+    exceptionReportTwo.setMessageHash(TEST_MESSAGE_HASH);
+    exceptionReportTwo.setService("test service");
+    exceptionReportTwo.setSubscription("test subscription");
+    exceptionReportTwo.setExceptionClass("test class");
+    exceptionReportTwo.setExceptionMessage("test message");
+
+    Map<String, String> headers = new HashMap<>();
+    headers.put("accept", "application/json");
+    headers.put("Content-Type", "application/json");
+    HttpResponse<String> response =
+        Unirest.post(String.format("http://localhost:%d/quarantinerule", port))
+            .headers(headers)
+            .body(objectMapper.writeValueAsString(autoQuarantineRule))
+            .asString();
+
+    assertThat(response.getStatus()).isEqualTo(OK.value());
+
+    response =
+        Unirest.post(String.format("http://localhost:%d/reportexceptions", port))
+            .headers(headers)
+            .body(
+                objectMapper.writeValueAsString(
+                    List.of(exceptionReportOne, exceptionReportTwo, exceptionReportTwo)))
+            .asString();
+
+    assertThat(response.getStatus()).isEqualTo(OK.value());
+
+    Response[] actualResponses = objectMapper.readValue(response.getBody(), Response[].class);
+    assertThat(actualResponses).hasSize(3);
+    assertThat(actualResponses[0].isSkipIt()).isTrue();
+    assertThat(actualResponses[1].isSkipIt()).isFalse();
+    assertThat(actualResponses[1].isLogIt()).isTrue();
+    assertThat(actualResponses[2].isSkipIt()).isFalse();
+    assertThat(actualResponses[2].isLogIt()).isFalse();
+
+    assertThat(cachingDataStore.getBadMessageReports(TEST_MESSAGE_HASH))
+        .extracting(report -> report.getStats().getSeenCount().get())
+        .containsExactlyInAnyOrder(1, 2);
+  }
+
   @Test
   public void testPeekReply() throws Exception {
     Peek peek = new Peek();
@@ -205,9 +264,7 @@ public class ReportingEndpointIT {
 
     assertThat(response.getStatus()).isEqualTo(OK.value());
 
-    List<SkippedMessage> skippedMessages = cachingDataStore.getSkippedMessages(TEST_MESSAGE_HASH);
-    assertThat(skippedMessages.size()).isEqualTo(1);
-    assertThat(skippedMessages.get(0)).isEqualTo(skippedMessage);
+    assertThat(cachingDataStore.hasSkippedMessages(TEST_MESSAGE_HASH)).isTrue();
 
     List<QuarantinedMessage> allQuarantinedMessages = quarantinedMessageRepository.findAll();
     assertThat(allQuarantinedMessages.size()).isEqualTo(1);
@@ -216,7 +273,11 @@ public class ReportingEndpointIT {
     assertThat(quarantinedMessage.getHeaders().size())
         .isEqualTo(skippedMessage.getHeaders().size());
     assertThat(quarantinedMessage.getHeaders().get("foo")).isEqualTo(TextNode.valueOf("bar"));
-    assertThat(quarantinedMessage.getMessagePayload())
+    assertThat(
+            quarantinedMessagePayloadRepository
+                .findById(TEST_MESSAGE_HASH)
+                .orElseThrow()
+                .getMessagePayload())
         .isEqualTo(skippedMessage.getMessagePayload());
     assertThat(quarantinedMessage.getRoutingKey()).isEqualTo(skippedMessage.getRoutingKey());
     assertThat(quarantinedMessage.getService()).isEqualTo(skippedMessage.getService());
@@ -5,20 +5,29 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
 import uk.gov.ons.census.exceptionmanager.model.dto.Peek;
 import uk.gov.ons.census.exceptionmanager.model.dto.Response;
 import uk.gov.ons.census.exceptionmanager.model.dto.SkippedMessage;
+import uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule;
 import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessage;
-import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessageRepository;
 import uk.gov.ons.census.exceptionmanager.persistence.CachingDataStore;
+import uk.gov.ons.census.exceptionmanager.persistence.QuarantinedMessageWriter;
 
 public class ReportingEndpointTest {
 
@@ -26,7 +35,8 @@ public class ReportingEndpointTest {
   public void testReportError() {
     String testMessageHash = "test message hash";
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
-    ReportingEndpoint underTest = new ReportingEndpoint(cachingDataStore, null);
+    ReportingEndpoint underTest =
+        new ReportingEndpoint(cachingDataStore, null, new SimpleMeterRegistry());
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setMessageHash(testMessageHash);
 
@@ -44,10 +54,68 @@ public class ReportingEndpointTest {
     assertThat(actualResponse.getBody().isLogIt()).isTrue();
   }
 
+  @Test
+  public void testReportErrors() {
+    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    ReportingEndpoint underTest =
+        new ReportingEndpoint(cachingDataStore, null, new SimpleMeterRegistry());
+    ExceptionReport exceptionReportOne = new ExceptionReport();
+    exceptionReportOne.setMessageHash("test message hash one");
+    ExceptionReport exceptionReportTwo = new ExceptionReport();
+    exceptionReportTwo.setMessageHash("test message hash two");
+    List<ExceptionReport> exceptionReports =
+        List.of(exceptionReportOne, exceptionReportTwo, exceptionReportOne);
+    AutoQuarantineRule quarantineRule = new AutoQuarantineRule();
+    quarantineRule.setQuarantine(true);
+
+    when(cachingDataStore.findMatchingRules(exceptionReports))
+        .thenReturn(
+            Map.of(
+                exceptionReportOne,
+                List.of(quarantineRule),
+                exceptionReportTwo,
+                Collections.emptyList()));
+    when(cachingDataStore.shouldWeLogThisMessage(any(ExceptionReport.class))).thenReturn(true);
+    when(cachingDataStore.shouldWePeekThisMessage("test message hash two")).thenReturn(true);
+
+    ResponseEntity<List<Response>> actualResponse = underTest.reportErrors(exceptionReports);
+
+    verify(cachingDataStore).findMatchingRules(eq(exceptionReports));
+    verify(cachingDataStore).updateStats(eq(exceptionReports));
+    verify(cachingDataStore, never()).findMatchingRules(any(ExceptionReport.class));
+    verify(cachingDataStore, never()).updateStats(any(ExceptionReport.class));
+
+    List<Response> responses = actualResponse.getBody();
+    assertThat(responses).hasSize(3);
+    assertThat(responses.get(0).isSkipIt()).isTrue();
+    assertThat(responses.get(0).isLogIt()).isTrue();
+    assertThat(responses.get(1).isSkipIt()).isFalse();
+    assertThat(responses.get(1).isPeek()).isTrue();
+    assertThat(responses.get(1).isLogIt()).isTrue();
+    assertThat(responses.get(2).isSkipIt()).isTrue();
+    assertThat(responses.get(2).isLogIt()).isFalse();
+  }
+
+  @Test
+  public void testReportErrorsRejectsNullReport() {
+    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    ReportingEndpoint underTest =
+        new ReportingEndpoint(cachingDataStore, null, new SimpleMeterRegistry());
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+
+    ResponseEntity<List<Response>> actualResponse =
+        underTest.reportErrors(Arrays.asList(exceptionReport, null));
+
+    assertThat(actualResponse.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    verifyNoInteractions(cachingDataStore);
+  }
+
   @Test
   public void testPeekReply() {
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
-    ReportingEndpoint underTest = new ReportingEndpoint(cachingDataStore, null);
+    ReportingEndpoint underTest =
+        new ReportingEndpoint(cachingDataStore, null, new SimpleMeterRegistry());
     Peek peek = new Peek();
 
     underTest.peekReply(peek);
@@ -58,10 +126,13 @@ public class ReportingEndpointTest {
   @Test
   public void testStoreSkippedMessage() {
     CachingDataStore cachingDataStore = mock(CachingDataStore.class);
-    QuarantinedMessageRepository quarantinedMessageRepository =
-        mock(QuarantinedMessageRepository.class);
+    QuarantinedMessageWriter quarantinedMessageWriter = mock(QuarantinedMessageWriter.class);
+    CompletableFuture<Void> acknowledgement = new CompletableFuture<>();
+    when(quarantinedMessageWriter.write(any(QuarantinedMessage.class), any(byte[].class)))
+        .thenReturn(acknowledgement);
     ReportingEndpoint underTest =
-        new ReportingEndpoint(cachingDataStore, quarantinedMessageRepository);
+        new ReportingEndpoint(
+            cachingDataStore, quarantinedMessageWriter, new SimpleMeterRegistry());
     SkippedMessage skippedMessage = new SkippedMessage();
     skippedMessage.setMessageHash("test message hash");
     skippedMessage.setSubscription("test subscription");
@@ -71,19 +142,41 @@ public class ReportingEndpointTest {
     skippedMessage.setMessagePayload("<noodle>poodle</noodle>".getBytes());
     skippedMessage.setService("test service");
 
-    underTest.storeSkippedMessage(skippedMessage);
+    CompletableFuture<Void> actualResult = underTest.storeSkippedMessage(skippedMessage);
 
+    verify(cachingDataStore, never()).storeSkippedMessage(any());
+    assertThat(actualResult).isNotDone();
+    acknowledgement.complete(null);
     verify(cachingDataStore).storeSkippedMessage(eq(skippedMessage));
+    assertThat(actualResult).isCompleted();
 
     ArgumentCaptor<QuarantinedMessage> quarantinedMessageArgCaptor =
         ArgumentCaptor.forClass(QuarantinedMessage.class);
-    verify(quarantinedMessageRepository).save(quarantinedMessageArgCaptor.capture());
+    verify(quarantinedMessageWriter)
+        .write(quarantinedMessageArgCaptor.capture(), eq(skippedMessage.getMessagePayload()));
     QuarantinedMessage quarantinedMessage = quarantinedMessageArgCaptor.getValue();
     assertThat(quarantinedMessage.getContentType()).isEqualTo(skippedMessage.getContentType());
     assertThat(quarantinedMessage.getHeaders()).isEqualTo(skippedMessage.getHeaders());
-    assertThat(quarantinedMessage.getMessagePayload())
-        .isEqualTo(skippedMessage.getMessagePayload());
     assertThat(quarantinedMessage.getRoutingKey()).isEqualTo(skippedMessage.getRoutingKey());
     assertThat(quarantinedMessage.getService()).isEqualTo(skippedMessage.getService());
   }
+
+  @Test
+  public void testStoreSkippedMessageFailedWriteIsNotMarkedSkipped() {
+    CachingDataStore cachingDataStore = mock(CachingDataStore.class);
+    QuarantinedMessageWriter quarantinedMessageWriter = mock(QuarantinedMessageWriter.class);
+    when(quarantinedMessageWriter.write(any(QuarantinedMessage.class), any(byte[].class)))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("test failure")));
+    ReportingEndpoint underTest =
+        new ReportingEndpoint(
+            cachingDataStore, quarantinedMessageWriter, new SimpleMeterRegistry());
+    SkippedMessage skippedMessage = new SkippedMessage();
+    skippedMessage.setMessageHash("test message hash");
+    skippedMessage.setMessagePayload("<noodle>poodle</noodle>".getBytes());
+
+    CompletableFuture<Void> actualResult = underTest.storeSkippedMessage(skippedMessage);
+
+    assertThat(actualResult).isCompletedExceptionally();
+    verify(cachingDataStore, never()).storeSkippedMessage(any());
+  }
 }
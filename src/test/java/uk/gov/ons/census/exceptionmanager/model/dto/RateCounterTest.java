@@ -0,0 +1,113 @@
+package uk.gov.ons.census.exceptionmanager.model.dto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class RateCounterTest {
+  private static final Instant START_TIME = Instant.parse("2020-01-01T00:00:00Z");
+
+  @Test
+  public void testRates() {
+    RateCounter underTest = RateCounter.perSecond();
+    for (int second = 0; second < 20; second++) {
+      for (int i = 0; i < 5; i++) {
+        underTest.record(START_TIME.plusSeconds(second));
+      }
+    }
+
+    ExceptionRates exceptionRates = underTest.toExceptionRates(START_TIME.plusSeconds(19));
+
+    // The current second isn't over yet, so the rate is over the ten before it
+    assertThat(exceptionRates.getPerSecond()).isEqualTo(5.0);
+    assertThat(exceptionRates.getLastMinute()).isEqualTo(100);
+    assertThat(exceptionRates.getLastFiveMinutes()).isEqualTo(100);
+    assertThat(exceptionRates.getLastHour()).isEqualTo(100);
+  }
+
+  @Test
+  public void testOldSightingsAgeOut() {
+    RateCounter underTest = RateCounter.perSecond();
+    underTest.record(START_TIME);
+    underTest.record(START_TIME.plusSeconds(200));
+    underTest.record(START_TIME.plusSeconds(225));
+    underTest.record(START_TIME.plusSeconds(400));
+
+    ExceptionRates exceptionRates = underTest.toExceptionRates(START_TIME.plusSeconds(420));
+
+    assertThat(exceptionRates.getPerSecond()).isZero();
+    assertThat(exceptionRates.getLastMinute()).isEqualTo(1);
+    assertThat(exceptionRates.getLastFiveMinutes()).isEqualTo(3);
+    assertThat(exceptionRates.getLastHour()).isEqualTo(4);
+
+    assertThat(underTest.toExceptionRates(START_TIME.plus(2, ChronoUnit.HOURS)))
+        .isEqualTo(new ExceptionRates());
+  }
+
+  @Test
+  public void testPerTenSecondsCountsInWholeBuckets() {
+    RateCounter underTest = RateCounter.perTenSeconds();
+    for (int second = 0; second < 30; second++) {
+      underTest.record(START_TIME.plusSeconds(second));
+    }
+
+    ExceptionRates exceptionRates = underTest.toExceptionRates(START_TIME.plusSeconds(25));
+
+    // The rate is over the last whole ten seconds, 10 to 19
+    assertThat(exceptionRates.getPerSecond()).isEqualTo(1.0);
+    assertThat(exceptionRates.getLastMinute()).isEqualTo(30);
+    assertThat(exceptionRates.getLastHour()).isEqualTo(30);
+  }
+
+  @Test
+  public void testSingleSightingMatchesACounter() {
+    for (int seconds : new int[] {0, 5, 15, 45, 65, 299, 301, 1000, 3599, 3601}) {
+      RateCounter rateCounter = RateCounter.perTenSeconds();
+      rateCounter.record(START_TIME);
+      ExceptionRates singleSightingRates = new ExceptionRates();
+
+      RateCounter.addSingleSighting(
+          singleSightingRates, START_TIME, START_TIME.plusSeconds(seconds));
+
+      assertThat(singleSightingRates)
+          .isEqualTo(rateCounter.toExceptionRates(START_TIME.plusSeconds(seconds)));
+    }
+  }
+
+  @Test
+  public void testSlotsAreReusedAfterALap() {
+    RateCounter underTest = RateCounter.perSecond();
+    underTest.record(START_TIME);
+    underTest.record(START_TIME.plusSeconds(300));
+
+    // Same slot as the first sighting, which must be forgotten rather than added to
+    assertThat(underTest.toExceptionRates(START_TIME.plusSeconds(300)).getLastFiveMinutes())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testConcurrentSightingsAreAllCounted() throws InterruptedException {
+    RateCounter underTest = RateCounter.perSecond();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    for (int thread = 0; thread < 4; thread++) {
+      executor.submit(
+          () -> {
+            for (int i = 0; i < 10000; i++) {
+              underTest.record(START_TIME);
+            }
+          });
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    ExceptionRates exceptionRates = underTest.toExceptionRates(START_TIME);
+    assertThat(exceptionRates.getLastMinute()).isEqualTo(40000);
+    assertThat(exceptionRates.getLastHour()).isEqualTo(40000);
+  }
+}
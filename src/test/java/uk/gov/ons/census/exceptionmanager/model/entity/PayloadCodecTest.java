@@ -0,0 +1,70 @@
+package uk.gov.ons.census.exceptionmanager.model.entity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+public class PayloadCodecTest {
+  private static final String CENSUS_EVENT_TEMPLATE =
+      "{\"event\":{\"type\":\"CASE_UPDATED\",\"source\":\"CASE_SERVICE\",\"channel\":\"RM\","
+          + "\"dateTime\":\"2021-03-21T10:15:30.000Z\",\"transactionId\":\"%s\"},"
+          + "\"payload\":{\"collectionCase\":{\"id\":\"%s\",\"caseRef\":\"%d\","
+          + "\"caseType\":\"HH\",\"survey\":\"CENSUS\",\"collectionExerciseId\":\"%s\","
+          + "\"address\":{\"addressLine1\":\"%d Test Street\",\"addressLine2\":\"Flat A\","
+          + "\"addressLine3\":\"\",\"townName\":\"Newport\",\"postcode\":\"NP10 8XG\","
+          + "\"region\":\"W00000000\",\"latitude\":\"51.5645\",\"longitude\":\"-3.0267\","
+          + "\"uprn\":\"%d\",\"addressType\":\"HH\",\"estabType\":\"HOUSEHOLD\"},"
+          + "\"contact\":{\"title\":null,\"forename\":null,\"surname\":null,\"telNo\":null},"
+          + "\"actionableFrom\":\"2021-03-01T00:00:00.000Z\",\"handDelivery\":false,"
+          + "\"addressInvalid\":false,\"ceExpectedCapacity\":null,\"refusalReceived\":null,"
+          + "\"receiptReceived\":false,\"metadata\":{\"secureEstablishment\":false}}}}";
+
+  @Test
+  public void testDeflateRoundTripsAndShrinksCensusEvents() {
+    Random random = new Random(0);
+    StringBuilder events = new StringBuilder("[");
+    for (int i = 0; i < 20; i++) {
+      events.append(
+          String.format(
+              CENSUS_EVENT_TEMPLATE,
+              UUID.randomUUID(),
+              UUID.randomUUID(),
+              1000000000L + random.nextInt(1000000),
+              UUID.randomUUID(),
+              random.nextInt(200),
+              10000000000L + random.nextInt(1000000)));
+      events.append(i < 19 ? "," : "]");
+    }
+    byte[] payload = events.toString().getBytes(StandardCharsets.UTF_8);
+
+    byte[] encoded = PayloadCodec.DEFLATE.encode(payload);
+
+    assertThat(PayloadCodec.DEFLATE.decode(encoded)).isEqualTo(payload);
+    assertThat(encoded.length).isLessThan(payload.length / 3);
+  }
+
+  @Test
+  public void testDeflateRejectsTruncatedPayload() {
+    byte[] encoded =
+        PayloadCodec.DEFLATE.encode("test payload ".repeat(100).getBytes(StandardCharsets.UTF_8));
+
+    assertThatThrownBy(
+            () -> PayloadCodec.DEFLATE.decode(Arrays.copyOf(encoded, encoded.length / 2)))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void testChoose() {
+    assertThat(PayloadCodec.choose("application/json", 2048, 1024)).isEqualTo(PayloadCodec.DEFLATE);
+    assertThat(PayloadCodec.choose("text/plain", 2048, 1024)).isEqualTo(PayloadCodec.DEFLATE);
+    assertThat(PayloadCodec.choose(null, 2048, 1024)).isEqualTo(PayloadCodec.DEFLATE);
+    assertThat(PayloadCodec.choose("application/json", 512, 1024)).isEqualTo(PayloadCodec.NONE);
+    assertThat(PayloadCodec.choose("application/gzip", 2048, 1024)).isEqualTo(PayloadCodec.NONE);
+    assertThat(PayloadCodec.choose("application/json", 2048, 0)).isEqualTo(PayloadCodec.NONE);
+  }
+}
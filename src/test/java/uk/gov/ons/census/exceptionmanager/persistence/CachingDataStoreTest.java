@@ -1,23 +1,44 @@
 package uk.gov.ons.census.exceptionmanager.persistence;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
+import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageRates;
 import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageReport;
+import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageSummary;
 import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
 import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionStats;
+import uk.gov.ons.census.exceptionmanager.model.dto.HeavyHitter;
 import uk.gov.ons.census.exceptionmanager.model.dto.Peek;
 import uk.gov.ons.census.exceptionmanager.model.dto.SkippedMessage;
+import uk.gov.ons.census.exceptionmanager.model.dto.TopBadMessages;
 import uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule;
 import uk.gov.ons.census.exceptionmanager.model.repository.AutoQuarantineRuleRepository;
 
@@ -27,7 +48,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setMessageHash("test message hash");
     exceptionReport.setExceptionClass("test class");
@@ -53,7 +75,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setMessageHash("test message hash");
     exceptionReport.setExceptionClass("test class");
@@ -80,7 +103,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReportOne = new ExceptionReport();
     exceptionReportOne.setMessageHash("test message hash");
     exceptionReportOne.setExceptionClass("test class");
@@ -118,12 +142,90 @@ public class CachingDataStoreTest {
         .contains(1, 3);
   }
 
+  @Test
+  public void testUpdateStatsBatch() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReportOne = new ExceptionReport();
+    exceptionReportOne.setMessageHash("test message hash");
+    exceptionReportOne.setExceptionClass("test class");
+    exceptionReportOne.setExceptionMessage("test exception message");
+    exceptionReportOne.setSubscription("test subscription");
+    exceptionReportOne.setService("test service");
+
+    ExceptionReport exceptionReportTwo = new ExceptionReport();
+    exceptionReportTwo.setMessageHash("another test message hash");
+    exceptionReportTwo.setExceptionClass("test class");
+    exceptionReportTwo.setExceptionMessage("test exception message");
+    exceptionReportTwo.setSubscription("test subscription");
+    exceptionReportTwo.setService("test service");
+
+    underTest.updateStats(List.of(exceptionReportOne, exceptionReportTwo, exceptionReportOne));
+
+    List<BadMessageReport> badMessageReports = underTest.getBadMessageReports("test message hash");
+    assertThat(badMessageReports.size()).isEqualTo(1);
+    assertThat(badMessageReports.get(0).getStats().getSeenCount().get()).isEqualTo(2);
+
+    badMessageReports = underTest.getBadMessageReports("another test message hash");
+    assertThat(badMessageReports.size()).isEqualTo(1);
+    assertThat(badMessageReports.get(0).getStats().getSeenCount().get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testUpdateStatsConcurrently() throws Exception {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    int threadCount = 8;
+    int updatesPerThread = 10000;
+
+    ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+    CountDownLatch startingGun = new CountDownLatch(1);
+    List<Future<?>> futures = new LinkedList<>();
+    for (int thread = 0; thread < threadCount; thread++) {
+      futures.add(
+          executorService.submit(
+              () -> {
+                startingGun.await();
+                for (int i = 0; i < updatesPerThread; i++) {
+                  ExceptionReport exceptionReport = new ExceptionReport();
+                  exceptionReport.setMessageHash("test message hash " + (i % 10));
+                  exceptionReport.setExceptionMessage("test exception message " + (i % 20));
+                  underTest.updateStats(exceptionReport);
+                }
+                return null;
+              }));
+    }
+    startingGun.countDown();
+    for (Future<?> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+    executorService.shutdown();
+
+    assertThat(underTest.getSeenMessageCount()).isEqualTo(10);
+    int totalSeenCount = 0;
+    for (String messageHash : underTest.getSeenMessageHashes()) {
+      List<BadMessageReport> badMessageReports = underTest.getBadMessageReports(messageHash);
+      assertThat(badMessageReports.size()).isEqualTo(2);
+      for (BadMessageReport badMessageReport : badMessageReports) {
+        totalSeenCount += badMessageReport.getStats().getSeenCount().get();
+      }
+    }
+    assertThat(totalSeenCount).isEqualTo(threadCount * updatesPerThread);
+  }
+
   @Test
   public void testShouldWeLog() {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setMessageHash("test message hash");
     exceptionReport.setExceptionClass("test class");
@@ -143,7 +245,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 1);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 1, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setMessageHash("test message hash");
     exceptionReport.setExceptionClass("test class");
@@ -167,7 +270,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setMessageHash("test message hash");
     exceptionReport.setExceptionClass("test class");
@@ -196,7 +300,8 @@ public class CachingDataStoreTest {
     rule.setExpression(
         "exceptionClass == \"test class\" and subscription == \"test subscription\"");
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.singletonList(rule));
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setMessageHash("test message hash");
     exceptionReport.setExceptionClass("test class");
@@ -218,7 +323,8 @@ public class CachingDataStoreTest {
     rule.setQuarantine(true);
     rule.setRuleExpiryDateTime(OffsetDateTime.MAX);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.singletonList(rule));
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setMessageHash("test message hash");
     exceptionReport.setExceptionClass("test class");
@@ -231,6 +337,109 @@ public class CachingDataStoreTest {
     assertThat(matchingRules.get(0).isQuarantine()).isTrue();
   }
 
+  @Test
+  public void testAutoQuarantineRuleIsCompiled() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule rule = new AutoQuarantineRule();
+    rule.setId(UUID.randomUUID());
+    rule.setQuarantine(true);
+    rule.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    rule.setExpression(
+        "exceptionClass == \"test class\" and exceptionMessage.contains('exception')");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.singletonList(rule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setExceptionClass("test class");
+    exceptionReport.setExceptionMessage("test exception message");
+
+    // Rules can't be compiled until they've been evaluated once
+    assertThat(underTest.getCompiledQuarantineRuleIds()).isEmpty();
+
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+    assertThat(underTest.getCompiledQuarantineRuleIds()).containsExactly(rule.getId());
+
+    // Check the compiled rule gives the same answers as the interpreted one did
+    ExceptionReport anotherExceptionReport = new ExceptionReport();
+    anotherExceptionReport.setMessageHash("test message hash");
+    anotherExceptionReport.setExceptionClass("test class");
+    anotherExceptionReport.setExceptionMessage("another test exception message");
+    assertThat(underTest.findMatchingRules(anotherExceptionReport)).containsExactly(rule);
+    anotherExceptionReport.setExceptionMessage("test message");
+    assertThat(underTest.findMatchingRules(anotherExceptionReport)).isEmpty();
+  }
+
+  @Test
+  public void testCompiledAutoQuarantineRuleWhichFailsIsInterpreted() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule rule = new AutoQuarantineRule();
+    rule.setId(UUID.randomUUID());
+    rule.setQuarantine(true);
+    rule.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    rule.setExpression("exceptionMessage.length() > 3");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.singletonList(rule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setExceptionMessage("test exception message");
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+    assertThat(underTest.getCompiledQuarantineRuleIds()).containsExactly(rule.getId());
+
+    // The compiled code can't cope with the null, so the rule goes back to being interpreted
+    ExceptionReport nullMessageReport = new ExceptionReport();
+    nullMessageReport.setMessageHash("test message hash");
+    assertThat(underTest.findMatchingRules(nullMessageReport)).isEmpty();
+
+    assertThat(underTest.getCompiledQuarantineRuleIds()).isEmpty();
+    exceptionReport.setExceptionMessage("another test exception message");
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+  }
+
+  @Test
+  public void testAutoQuarantineRuleNotCompiledWhenDisabled() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule rule = new AutoQuarantineRule();
+    rule.setId(UUID.randomUUID());
+    rule.setQuarantine(true);
+    rule.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    rule.setExpression("exceptionClass == \"test class\"");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.singletonList(rule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, false, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setExceptionClass("test class");
+
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+    assertThat(underTest.getCompiledQuarantineRuleIds()).isEmpty();
+  }
+
+  @Test
+  public void testAutoQuarantineRuleWhichCannotCompileIsInterpreted() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule rule = new AutoQuarantineRule();
+    rule.setId(UUID.randomUUID());
+    rule.setQuarantine(true);
+    rule.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    rule.setExpression("exceptionMessage matches '.*exception.*'");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.singletonList(rule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setExceptionMessage("test exception message");
+
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+    assertThat(underTest.getCompiledQuarantineRuleIds()).isEmpty();
+  }
+
   @Test
   public void testShouldWeSkipAutoQuarantineDoesNotMatch() {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
@@ -240,7 +449,8 @@ public class CachingDataStoreTest {
     rule.setExpression("exceptionClass == \"noodle\" and subscription == \"test subscription\"");
     rule.setRuleExpiryDateTime(OffsetDateTime.MAX);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.singletonList(rule));
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setMessageHash("test message hash");
     exceptionReport.setExceptionClass("test class");
@@ -252,12 +462,138 @@ public class CachingDataStoreTest {
     assertThat(matchingRules.size()).isEqualTo(0);
   }
 
+  @Test
+  public void testFindMatchingRulesBatch() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule rule = new AutoQuarantineRule();
+    rule.setQuarantine(true);
+    rule.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    rule.setExpression("exceptionMessage.contains('quarantine_me')");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.singletonList(rule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReportOne = new ExceptionReport();
+    exceptionReportOne.setMessageHash("test message hash");
+    exceptionReportOne.setExceptionMessage("test quarantine_me message");
+    ExceptionReport exceptionReportTwo = new ExceptionReport();
+    exceptionReportTwo.setMessageHash("another test message hash");
+    exceptionReportTwo.setExceptionMessage("test exception message");
+
+    Map<ExceptionReport, List<AutoQuarantineRule>> matchingRules =
+        underTest.findMatchingRules(
+            List.of(exceptionReportOne, exceptionReportTwo, exceptionReportOne));
+
+    assertThat(matchingRules).hasSize(2);
+    assertThat(matchingRules.get(exceptionReportOne)).containsExactly(rule);
+    assertThat(matchingRules.get(exceptionReportTwo)).isEmpty();
+  }
+
+  @Test
+  public void testFindMatchingRulesOnlyEvaluatesRelevantIndexedRules() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule matchingRule = new AutoQuarantineRule();
+    matchingRule.setQuarantine(true);
+    matchingRule.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    matchingRule.setExpression("service == 'test service' and exceptionMessage != null");
+    AutoQuarantineRule otherServiceRule = new AutoQuarantineRule();
+    otherServiceRule.setQuarantine(true);
+    otherServiceRule.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    // Would blow up evaluating against a report with no message, if it weren't filtered out
+    otherServiceRule.setExpression(
+        "service == 'other service' and exceptionMessage.contains('test')");
+    when(autoQuarantineRuleRepository.findAll())
+        .thenReturn(List.of(matchingRule, otherServiceRule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setService("test service");
+    exceptionReport.setExceptionMessage("test exception message");
+
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(matchingRule);
+
+    exceptionReport.setService("other service");
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(otherServiceRule);
+  }
+
+  @Test
+  public void testFindMatchingRulesRemembersVerdict() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule rule = new AutoQuarantineRule();
+    rule.setQuarantine(true);
+    rule.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    rule.setExpression("exceptionMessage.contains('quarantine_me')");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.singletonList(rule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setExceptionMessage("test quarantine_me message");
+
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+
+    // Sneakily change the rule underneath the cache, to prove it isn't evaluated again
+    rule.setExpression("false");
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+  }
+
+  @Test
+  public void testRememberedVerdictExpiresWithRule() {
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule rule = new AutoQuarantineRule();
+    rule.setQuarantine(true);
+    rule.setRuleExpiryDateTime(OffsetDateTime.ofInstant(startTime.plusSeconds(60), ZoneOffset.UTC));
+    rule.setExpression("exceptionMessage.contains('quarantine_me')");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.singletonList(rule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setExceptionMessage("test quarantine_me message");
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(90), ZoneOffset.UTC));
+    assertThat(underTest.findMatchingRules(exceptionReport)).isEmpty();
+  }
+
+  @Test
+  public void testRememberedVerdictsForgottenWhenRulesChange() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setExceptionMessage("test quarantine_me message");
+
+    assertThat(underTest.findMatchingRules(exceptionReport)).isEmpty();
+
+    underTest.addQuarantineRuleExpression(
+        "exceptionMessage.contains('quarantine_me')", false, true, false, OffsetDateTime.MAX);
+    List<AutoQuarantineRule> matchingRules = underTest.findMatchingRules(exceptionReport);
+    assertThat(matchingRules).hasSize(1);
+    assertThat(matchingRules.get(0).getExpression())
+        .isEqualTo("exceptionMessage.contains('quarantine_me')");
+
+    underTest.deleteQuarantineRule(matchingRules.get(0).getId().toString());
+    assertThat(underTest.findMatchingRules(exceptionReport)).isEmpty();
+  }
+
   @Test
   public void testShouldWePeek() {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setMessageHash("test message hash");
     exceptionReport.setExceptionClass("test class");
@@ -281,7 +617,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     ExceptionReport exceptionReportOne = new ExceptionReport();
     exceptionReportOne.setMessageHash("test message hash");
     exceptionReportOne.setExceptionClass("test class");
@@ -312,7 +649,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     Peek peek = new Peek();
     peek.setMessageHash("test message hash");
     peek.setMessagePayload("test message".getBytes());
@@ -322,20 +660,104 @@ public class CachingDataStoreTest {
         .isEqualTo("test message".getBytes());
   }
 
+  @Test
+  public void testPeekMessageWaitsForReply() throws Exception {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+
+    CompletableFuture<byte[]> firstPeek = underTest.peekMessage("test message hash");
+    CompletableFuture<byte[]> secondPeek = underTest.peekMessage("test message hash");
+
+    assertThat(firstPeek).isNotDone();
+    assertThat(secondPeek).isNotDone();
+
+    Peek peek = new Peek();
+    peek.setMessageHash("test message hash");
+    peek.setMessagePayload("test message".getBytes());
+    underTest.storePeekMessageReply(peek);
+
+    assertThat(firstPeek.get()).isEqualTo("test message".getBytes());
+    assertThat(secondPeek.get()).isEqualTo("test message".getBytes());
+    assertThat(underTest.shouldWePeekThisMessage("test message hash")).isFalse();
+    assertThat(underTest.peekMessage("test message hash").get())
+        .isEqualTo("test message".getBytes());
+  }
+
+  @Test
+  public void testStopWaitingForPeek() {
+    CachingDataStore underTest = buildEvictingDataStore(0, 0);
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    underTest.bindTo(meterRegistry);
+
+    CompletableFuture<byte[]> abandonedPeek = underTest.peekMessage("test message hash");
+    CompletableFuture<byte[]> waitingPeek = underTest.peekMessage("test message hash");
+    underTest.peekMessage("other message hash");
+
+    underTest.stopWaitingForPeek("test message hash", abandonedPeek);
+    assertThat(getStoreSize(meterRegistry, "peek-reply-waiters")).isEqualTo(2);
+
+    Peek peek = new Peek();
+    peek.setMessageHash("test message hash");
+    peek.setMessagePayload("test message".getBytes());
+    underTest.storePeekMessageReply(peek);
+
+    assertThat(abandonedPeek).isNotDone();
+    assertThat(waitingPeek).isCompleted();
+    assertThat(getStoreSize(meterRegistry, "peek-reply-waiters")).isEqualTo(1);
+
+    // Nobody is left waiting on a message that's been reset
+    underTest.reset(Optional.empty());
+    assertThat(getStoreSize(meterRegistry, "peek-reply-waiters")).isZero();
+  }
+
+  @Test
+  public void testPeekWhileLastWaiterGivesUp() throws Exception {
+    CachingDataStore underTest = buildEvictingDataStore(0, 0);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      for (int i = 0; i < 1000; i++) {
+        String messageHash = "test message hash " + i;
+        CompletableFuture<byte[]> abandonedPeek = underTest.peekMessage(messageHash);
+        CountDownLatch started = new CountDownLatch(1);
+        Future<?> giveUp =
+            executor.submit(
+                () -> {
+                  started.countDown();
+                  underTest.stopWaitingForPeek(messageHash, abandonedPeek);
+                });
+
+        started.await();
+        CompletableFuture<byte[]> waitingPeek = underTest.peekMessage(messageHash);
+        giveUp.get(5, TimeUnit.SECONDS);
+        Peek peek = new Peek();
+        peek.setMessageHash(messageHash);
+        peek.setMessagePayload("test message".getBytes());
+        underTest.storePeekMessageReply(peek);
+
+        assertThat(waitingPeek).isCompleted();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testStoreSkippedMessage() {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     SkippedMessage skippedMessage = new SkippedMessage();
     skippedMessage.setMessageHash("test message hash");
     underTest.storeSkippedMessage(skippedMessage);
 
-    assertThat(underTest.getSkippedMessages("test message hash")).contains(skippedMessage);
-    assertThat(underTest.getAllSkippedMessages())
-        .containsOnlyKeys("test message hash")
-        .containsValue(List.of(skippedMessage));
+    assertThat(underTest.hasSkippedMessages("test message hash")).isTrue();
+    assertThat(underTest.hasSkippedMessages("other message hash")).isFalse();
   }
 
   @Test
@@ -343,7 +765,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     SkippedMessage skippedMessageOne = new SkippedMessage();
     skippedMessageOne.setMessageHash("test message hash");
     skippedMessageOne.setSubscription("test subscription one");
@@ -354,8 +777,25 @@ public class CachingDataStoreTest {
     skippedMessageTwo.setSubscription("test subscription two");
     underTest.storeSkippedMessage(skippedMessageTwo);
 
-    assertThat(underTest.getSkippedMessages("test message hash"))
-        .contains(skippedMessageOne, skippedMessageTwo);
+    assertThat(underTest.hasSkippedMessages("test message hash")).isTrue();
+  }
+
+  @Test
+  public void testOldestSkippedMessagesDroppedOverLimit() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 2);
+    for (String messageHash : List.of("first", "second", "second", "third")) {
+      SkippedMessage skippedMessage = new SkippedMessage();
+      skippedMessage.setMessageHash(messageHash);
+      underTest.storeSkippedMessage(skippedMessage);
+    }
+
+    assertThat(underTest.hasSkippedMessages("first")).isFalse();
+    assertThat(underTest.hasSkippedMessages("second")).isTrue();
+    assertThat(underTest.hasSkippedMessages("third")).isTrue();
   }
 
   @Test
@@ -363,7 +803,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     SkippedMessage skippedMessageOne = new SkippedMessage();
     skippedMessageOne.setMessageHash("test message hash");
     skippedMessageOne.setSubscription("test subscription one");
@@ -403,20 +844,14 @@ public class CachingDataStoreTest {
     skippedMessage.setMessageHash("test message hash");
     underTest.storeSkippedMessage(skippedMessage);
 
-    assertThat(underTest.getSkippedMessages("test message hash")).contains(skippedMessage);
-    assertThat(underTest.getAllSkippedMessages().get("test message hash")).contains(skippedMessage);
+    assertThat(underTest.hasSkippedMessages("test message hash")).isTrue();
 
     underTest.reset(java.util.Optional.empty());
 
-    assertThat(underTest.getSkippedMessages("test message hash")).contains(skippedMessage);
-    assertThat(underTest.getAllSkippedMessages().get("test message hash")).contains(skippedMessage);
-
-    assertThat(underTest.getAllSkippedMessages()).isNotEmpty();
+    assertThat(underTest.hasSkippedMessages("test message hash")).isFalse();
     assertThat(underTest.getPeekedMessage("test message hash")).isNullOrEmpty();
     assertThat(underTest.getBadMessageReports("test message hash")).isEmpty();
     assertThat(underTest.getBadMessageReports("test message hash")).isEmpty();
-    assertThat(underTest.getAllSkippedMessages()).isNotEmpty();
-    assertThat(underTest.getAllSkippedMessages()).isNotEmpty();
   }
 
   @Test
@@ -424,7 +859,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
 
     ExceptionReport exceptionReportOne = new ExceptionReport();
     exceptionReportOne.setMessageHash("test message hash");
@@ -453,7 +889,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
 
     ExceptionReport exceptionReportOne = new ExceptionReport();
     exceptionReportOne.setMessageHash("test message hash");
@@ -487,7 +924,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(expectedAutoQuarantineRules);
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
 
     // When
     List<AutoQuarantineRule> actualQuarantineRules = underTest.getQuarantineRules();
@@ -502,7 +940,8 @@ public class CachingDataStoreTest {
     AutoQuarantineRuleRepository autoQuarantineRuleRepository =
         mock(AutoQuarantineRuleRepository.class);
     when(autoQuarantineRuleRepository.findAll()).thenReturn(expectedAutoQuarantineRules);
-    CachingDataStore underTest = new CachingDataStore(autoQuarantineRuleRepository, 0);
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
     UUID testId = UUID.randomUUID();
 
     // When
@@ -511,4 +950,527 @@ public class CachingDataStoreTest {
     // Then
     verify(autoQuarantineRuleRepository).deleteById(eq(testId));
   }
+
+  @Test
+  public void testDeleteQuarantineRuleLeavesOtherRulesInPlace() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule ruleToDelete = new AutoQuarantineRule();
+    ruleToDelete.setId(UUID.randomUUID());
+    ruleToDelete.setQuarantine(true);
+    ruleToDelete.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    ruleToDelete.setExpression("exceptionMessage.contains('test')");
+    AutoQuarantineRule ruleToKeep = new AutoQuarantineRule();
+    ruleToKeep.setId(UUID.randomUUID());
+    ruleToKeep.setQuarantine(true);
+    ruleToKeep.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    ruleToKeep.setExpression("exceptionMessage.contains('message')");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(List.of(ruleToDelete, ruleToKeep));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setExceptionMessage("test exception message");
+
+    assertThat(underTest.findMatchingRules(exceptionReport))
+        .containsExactlyInAnyOrder(ruleToDelete, ruleToKeep);
+
+    underTest.deleteQuarantineRule(ruleToDelete.getId().toString());
+
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(ruleToKeep);
+    // The rules are only ever loaded from the database at startup
+    verify(autoQuarantineRuleRepository, times(1)).findAll();
+  }
+
+  @Test
+  public void testRemoveExpiredQuarantineRules() {
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule expiringRule = new AutoQuarantineRule();
+    expiringRule.setId(UUID.randomUUID());
+    expiringRule.setQuarantine(true);
+    expiringRule.setRuleExpiryDateTime(
+        OffsetDateTime.ofInstant(startTime.plusSeconds(60), ZoneOffset.UTC));
+    expiringRule.setExpression("exceptionMessage.contains('test')");
+    AutoQuarantineRule liveRule = new AutoQuarantineRule();
+    liveRule.setId(UUID.randomUUID());
+    liveRule.setQuarantine(true);
+    liveRule.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    liveRule.setExpression("exceptionMessage.contains('message')");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(List.of(expiringRule, liveRule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, true, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setExceptionMessage("test exception message");
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+
+    assertThat(underTest.removeExpiredQuarantineRules()).isZero();
+    assertThat(underTest.findMatchingRules(exceptionReport))
+        .containsExactlyInAnyOrder(expiringRule, liveRule);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(90), ZoneOffset.UTC));
+    assertThat(underTest.removeExpiredQuarantineRules()).isEqualTo(1);
+    assertThat(underTest.removeExpiredQuarantineRules()).isZero();
+
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(liveRule);
+    verify(autoQuarantineRuleRepository).deleteAllById(List.of(expiringRule.getId()));
+  }
+
+  @Test
+  public void testRuleWithoutExpiryNeverExpires() {
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule rule = new AutoQuarantineRule();
+    rule.setId(UUID.randomUUID());
+    rule.setQuarantine(true);
+    rule.setExpression("exceptionMessage.contains('test')");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(List.of(rule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, true, 0, 0, 0);
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash("test message hash");
+    exceptionReport.setExceptionMessage("test exception message");
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+
+    underTest.setClock(Clock.fixed(startTime.plus(3650, ChronoUnit.DAYS), ZoneOffset.UTC));
+    assertThat(underTest.removeExpiredQuarantineRules()).isZero();
+    assertThat(underTest.findMatchingRules(exceptionReport)).containsExactly(rule);
+    verify(autoQuarantineRuleRepository, never()).deleteAllById(any());
+  }
+
+  @Test
+  public void testRemoveExpiredQuarantineRulesKeepsThemInDatabase() {
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    AutoQuarantineRule expiringRule = new AutoQuarantineRule();
+    expiringRule.setId(UUID.randomUUID());
+    expiringRule.setRuleExpiryDateTime(
+        OffsetDateTime.ofInstant(startTime.plusSeconds(60), ZoneOffset.UTC));
+    expiringRule.setExpression("true");
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(List.of(expiringRule));
+    CachingDataStore underTest =
+        new CachingDataStore(autoQuarantineRuleRepository, 0, true, 100, false, 0, 0, 0);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(90), ZoneOffset.UTC));
+    assertThat(underTest.removeExpiredQuarantineRules()).isEqualTo(1);
+
+    verify(autoQuarantineRuleRepository, never()).deleteAllById(any());
+  }
+
+  @Test
+  public void testRates() {
+    CachingDataStore underTest = buildEvictingDataStore(0, 0);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    ExceptionReport exceptionReport = buildExceptionReport("test message hash");
+    exceptionReport.setSubscription("test subscription");
+    ExceptionReport otherExceptionReport = buildExceptionReport("test message hash");
+    otherExceptionReport.setExceptionClass("other class");
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(List.of(exceptionReport, exceptionReport, otherExceptionReport));
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(90), ZoneOffset.UTC));
+    underTest.updateStats(exceptionReport);
+
+    List<BadMessageReport> badMessageReports = underTest.getBadMessageReports("test message hash");
+    assertThat(badMessageReports.get(0).getRates().getLastMinute()).isEqualTo(1);
+    assertThat(badMessageReports.get(0).getRates().getLastFiveMinutes()).isEqualTo(3);
+    assertThat(badMessageReports.get(1).getRates().getLastMinute()).isZero();
+    assertThat(badMessageReports.get(1).getRates().getLastFiveMinutes()).isEqualTo(1);
+
+    BadMessageSummary badMessageSummary = underTest.getBadMessageSummary("test message hash");
+    assertThat(badMessageSummary.getRates().getLastMinute()).isEqualTo(1);
+    assertThat(badMessageSummary.getRates().getLastHour()).isEqualTo(4);
+
+    BadMessageRates badMessageRates = underTest.getBadMessageRates();
+    assertThat(badMessageRates.getServices()).containsOnlyKeys("test service");
+    assertThat(badMessageRates.getServices().get("test service").getLastHour()).isEqualTo(4);
+    assertThat(badMessageRates.getSubscriptions()).containsOnlyKeys("test subscription");
+    assertThat(badMessageRates.getSubscriptions().get("test subscription").getLastHour())
+        .isEqualTo(3);
+
+    // Service rates keep counting after the messages are forgotten, but not after a full reset
+    underTest.reset(Optional.of(0));
+    assertThat(underTest.getBadMessageRates().getServices()).containsOnlyKeys("test service");
+    underTest.reset(Optional.empty());
+    assertThat(underTest.getBadMessageRates().getServices()).isEmpty();
+  }
+
+  @Test
+  public void testTopBadMessages() {
+    CachingDataStore underTest = buildEvictingDataStore(0, 0);
+    ExceptionReport noisyExceptionReport = buildExceptionReport("noisy message hash");
+    noisyExceptionReport.setExceptionClass("noisy class");
+    ExceptionReport quietExceptionReport = buildExceptionReport("quiet message hash");
+    quietExceptionReport.setService("quiet service");
+
+    for (int i = 0; i < 5; i++) {
+      underTest.updateStats(noisyExceptionReport);
+    }
+    underTest.updateStats(quietExceptionReport);
+
+    TopBadMessages topBadMessages = underTest.getTopBadMessages(1);
+    assertThat(topBadMessages.getMessageHashes())
+        .extracting(HeavyHitter::getKey, HeavyHitter::getSeenCount)
+        .containsExactly(tuple("noisy message hash", 5L));
+    assertThat(topBadMessages.getServices())
+        .extracting(HeavyHitter::getKey)
+        .containsExactly("test service");
+    assertThat(topBadMessages.getSubscriptions()).isEmpty();
+    assertThat(topBadMessages.getExceptionClasses())
+        .extracting(HeavyHitter::getKey)
+        .containsExactly("noisy class");
+
+    assertThat(underTest.getTopBadMessages(10).getMessageHashes()).hasSize(2);
+
+    underTest.reset(Optional.empty());
+    assertThat(underTest.getTopBadMessages(10).getMessageHashes()).isEmpty();
+  }
+
+  @Test
+  public void testEvictSeenMessagesByAge() {
+    CachingDataStore underTest = buildEvictingDataStore(0, 60);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    ExceptionReport oldExceptionReport = buildExceptionReport("old message hash");
+    ExceptionReport recentExceptionReport = buildExceptionReport("recent message hash");
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(oldExceptionReport);
+    Peek peek = new Peek();
+    peek.setMessageHash("old message hash");
+    peek.setMessagePayload("test".getBytes());
+    underTest.storePeekMessageReply(peek);
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(50), ZoneOffset.UTC));
+    underTest.updateStats(recentExceptionReport);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(100), ZoneOffset.UTC));
+    assertThat(underTest.evictSeenMessages()).isEqualTo(1);
+
+    assertThat(underTest.getSeenMessageHashes()).containsOnly("recent message hash");
+    assertThat(underTest.getBadMessageReports("old message hash")).isEmpty();
+    assertThat(underTest.getPeekedMessage("old message hash")).isNull();
+    assertThat(underTest.getSeenMessageHashes(1)).containsOnly("recent message hash");
+  }
+
+  @Test
+  public void testEvictSeenMessagesBySize() {
+    CachingDataStore underTest = buildEvictingDataStore(2, 0);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    ExceptionReport exceptionReportOne = buildExceptionReport("test message hash 1");
+    ExceptionReport exceptionReportTwo = buildExceptionReport("test message hash 2");
+    ExceptionReport exceptionReportThree = buildExceptionReport("test message hash 3");
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(exceptionReportOne);
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(10), ZoneOffset.UTC));
+    underTest.updateStats(exceptionReportTwo);
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(20), ZoneOffset.UTC));
+    underTest.updateStats(exceptionReportThree);
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(30), ZoneOffset.UTC));
+    underTest.updateStats(exceptionReportOne);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(100), ZoneOffset.UTC));
+    assertThat(underTest.evictSeenMessages()).isEqualTo(1);
+
+    // The first message was seen again more recently than the second
+    assertThat(underTest.getSeenMessageHashes())
+        .containsOnly("test message hash 1", "test message hash 3");
+    assertThat(underTest.evictSeenMessages()).isZero();
+  }
+
+  @Test
+  public void testEvictSeenMessagesNeverEvictsQuarantinedMessages() {
+    CachingDataStore underTest = buildEvictingDataStore(1, 60);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(buildExceptionReport("skipped message hash"));
+    underTest.updateStats(buildExceptionReport("stored message hash"));
+    underTest.updateStats(buildExceptionReport("test message hash"));
+    underTest.skipMessage("skipped message hash", "test user");
+    SkippedMessage skippedMessage = new SkippedMessage();
+    skippedMessage.setMessageHash("stored message hash");
+    underTest.storeSkippedMessage(skippedMessage);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(100), ZoneOffset.UTC));
+    assertThat(underTest.evictSeenMessages()).isEqualTo(1);
+
+    assertThat(underTest.getSeenMessageHashes())
+        .containsOnly("skipped message hash", "stored message hash");
+    assertThat(underTest.getBadMessageReports("skipped message hash")).hasSize(1);
+    assertThat(underTest.isQuarantined("skipped message hash")).isTrue();
+    assertThat(underTest.hasSkippedMessages("stored message hash")).isTrue();
+  }
+
+  @Test
+  public void testEvictSeenMessagesSetsQuarantinedMessagesAside() {
+    CachingDataStore underTest = buildEvictingDataStore(1, 0);
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    underTest.bindTo(meterRegistry);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(buildExceptionReport("skipped message hash 1"));
+    underTest.updateStats(buildExceptionReport("skipped message hash 2"));
+    underTest.skipMessage("skipped message hash 1", "test user");
+    underTest.skipMessage("skipped message hash 2", "test user");
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(100), ZoneOffset.UTC));
+    assertThat(underTest.evictSeenMessages()).isZero();
+
+    // Over the limit, but only with messages which can't be evicted, so they're not looked at again
+    assertThat(getStoreSize(meterRegistry, "held-exception-reports")).isEqualTo(2);
+    assertThat(getStoreSize(meterRegistry, "last-seen-buckets")).isZero();
+    assertThat(underTest.evictSeenMessages()).isZero();
+
+    // Unless a reset asks for quarantined messages to be forgotten too
+    underTest.reset(Optional.of(10));
+    assertThat(underTest.getSeenMessageHashes()).isEmpty();
+    assertThat(getStoreSize(meterRegistry, "held-exception-reports")).isZero();
+  }
+
+  @Test
+  public void testEvictionMetrics() {
+    CachingDataStore underTest = buildEvictingDataStore(1, 60);
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    underTest.bindTo(meterRegistry);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(buildExceptionReport("test message hash 1"));
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(50), ZoneOffset.UTC));
+    underTest.updateStats(buildExceptionReport("test message hash 2"));
+    underTest.updateStats(buildExceptionReport("test message hash 3"));
+    assertThat(meterRegistry.get("exceptionmanager.seen.messages").gauge().value()).isEqualTo(3);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(100), ZoneOffset.UTC));
+    underTest.evictSeenMessages();
+
+    assertThat(meterRegistry.get("exceptionmanager.seen.messages").gauge().value()).isEqualTo(1);
+    assertThat(
+            meterRegistry
+                .get("exceptionmanager.seen.messages.evicted")
+                .tag("reason", "age")
+                .functionCounter()
+                .count())
+        .isEqualTo(1);
+    assertThat(
+            meterRegistry
+                .get("exceptionmanager.seen.messages.evicted")
+                .tag("reason", "size")
+                .functionCounter()
+                .count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testRuleMetrics() {
+    CachingDataStore underTest = buildEvictingDataStore(0, 0);
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    underTest.bindTo(meterRegistry);
+    underTest.addQuarantineRuleExpression(
+        "service == 'test service'", false, true, false, OffsetDateTime.MAX);
+
+    String ruleId =
+        underTest
+            .findMatchingRules(buildExceptionReport("test message hash"))
+            .get(0)
+            .getId()
+            .toString();
+    underTest.findMatchingRules(buildExceptionReport("test message hash"));
+
+    // The second report was answered from the verdict cache, so it matched without evaluating
+    assertThat(
+            meterRegistry
+                .get("exceptionmanager.rule.evaluation")
+                .tag("rule", ruleId)
+                .functionTimer()
+                .count())
+        .isEqualTo(1);
+    assertThat(
+            meterRegistry
+                .get("exceptionmanager.rule.matches")
+                .tag("rule", ruleId)
+                .functionCounter()
+                .count())
+        .isEqualTo(2);
+    assertThat(
+            meterRegistry
+                .get("exceptionmanager.store.size")
+                .tag("collection", "quarantine-rules")
+                .gauge()
+                .value())
+        .isEqualTo(1);
+
+    underTest.deleteQuarantineRule(ruleId);
+
+    assertThat(meterRegistry.find("exceptionmanager.rule.matches").meters()).isEmpty();
+  }
+
+  @Test
+  public void testEvictSeenMessagesOnlyEvictsStaleReports() {
+    CachingDataStore underTest = buildEvictingDataStore(0, 60);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    ExceptionReport staleExceptionReport = buildExceptionReport("test message hash");
+    ExceptionReport recentExceptionReport = buildExceptionReport("test message hash");
+    recentExceptionReport.setExceptionClass("test class");
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(staleExceptionReport);
+    underTest.updateStats(recentExceptionReport);
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(50), ZoneOffset.UTC));
+    underTest.updateStats(recentExceptionReport);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(100), ZoneOffset.UTC));
+    assertThat(underTest.evictSeenMessages()).isZero();
+
+    List<BadMessageReport> badMessageReports = underTest.getBadMessageReports("test message hash");
+    assertThat(badMessageReports).hasSize(1);
+    assertThat(badMessageReports.get(0).getExceptionReport()).isEqualTo(recentExceptionReport);
+    assertThat(badMessageReports.get(0).getStats().getSeenCount().get()).isEqualTo(2);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(200), ZoneOffset.UTC));
+    assertThat(underTest.evictSeenMessages()).isEqualTo(1);
+    assertThat(underTest.getSeenMessageHashes()).isEmpty();
+  }
+
+  @Test
+  public void testResetOldMessagesOnlyRemovesStaleReports() {
+    CachingDataStore underTest = buildEvictingDataStore(0, 0);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    ExceptionReport staleExceptionReport = buildExceptionReport("test message hash");
+    ExceptionReport recentExceptionReport = buildExceptionReport("test message hash");
+    recentExceptionReport.setExceptionClass("test class");
+    ExceptionReport skippedExceptionReport = buildExceptionReport("skipped message hash");
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(staleExceptionReport);
+    underTest.updateStats(skippedExceptionReport);
+    underTest.skipMessage("skipped message hash", "test user");
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(50), ZoneOffset.UTC));
+    underTest.updateStats(recentExceptionReport);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(100), ZoneOffset.UTC));
+    underTest.reset(Optional.of(60));
+
+    assertThat(underTest.getSeenMessageHashes()).containsOnly("test message hash");
+    assertThat(underTest.getBadMessageReports("test message hash"))
+        .extracting(BadMessageReport::getExceptionReport)
+        .containsExactly(recentExceptionReport);
+    assertThat(underTest.isQuarantined("skipped message hash")).isTrue();
+  }
+
+  @Test
+  public void testGetBadMessageSummary() {
+    CachingDataStore underTest = buildEvictingDataStore(0, 0);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    ExceptionReport exceptionReportOne = buildExceptionReport("test message hash");
+    exceptionReportOne.setSubscription("test subscription");
+    ExceptionReport exceptionReportTwo = buildExceptionReport("test message hash");
+    exceptionReportTwo.setService("another test service");
+    exceptionReportTwo.setSubscription("another test subscription");
+
+    assertThat(underTest.getBadMessageSummary("test message hash")).isNull();
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(exceptionReportOne);
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(10), ZoneOffset.UTC));
+    underTest.updateStats(List.of(exceptionReportTwo, exceptionReportOne, exceptionReportTwo));
+
+    BadMessageSummary badMessageSummary = underTest.getBadMessageSummary("test message hash");
+    assertThat(badMessageSummary.getMessageHash()).isEqualTo("test message hash");
+    assertThat(badMessageSummary.getFirstSeen()).isEqualTo(startTime);
+    assertThat(badMessageSummary.getLastSeen()).isEqualTo(startTime.plusSeconds(10));
+    assertThat(badMessageSummary.getSeenCount()).isEqualTo(4);
+    assertThat(badMessageSummary.getAffectedServices())
+        .containsOnly("test service", "another test service");
+    assertThat(badMessageSummary.getAffectedSubscriptions())
+        .containsOnly("test subscription", "another test subscription");
+  }
+
+  @Test
+  public void testGetBadMessageSummaryAfterStaleReportsRemoved() {
+    CachingDataStore underTest = buildEvictingDataStore(0, 0);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    ExceptionReport staleExceptionReport = buildExceptionReport("test message hash");
+    ExceptionReport recentExceptionReport = buildExceptionReport("test message hash");
+    recentExceptionReport.setService("another test service");
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(staleExceptionReport);
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(50), ZoneOffset.UTC));
+    underTest.updateStats(recentExceptionReport);
+    underTest.updateStats(recentExceptionReport);
+
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(100), ZoneOffset.UTC));
+    underTest.reset(Optional.of(60));
+
+    BadMessageSummary badMessageSummary = underTest.getBadMessageSummary("test message hash");
+    assertThat(badMessageSummary.getFirstSeen()).isEqualTo(startTime.plusSeconds(50));
+    assertThat(badMessageSummary.getSeenCount()).isEqualTo(2);
+    assertThat(badMessageSummary.getAffectedServices()).containsOnly("another test service");
+
+    underTest.reset(Optional.empty());
+    assertThat(underTest.getBadMessageSummary("test message hash")).isNull();
+  }
+
+  @Test
+  public void testGetSeenMessageHashesMinimumSeenCount() {
+    CachingDataStore underTest = buildEvictingDataStore(0, 0);
+    Instant startTime = Instant.parse("2020-01-01T00:00:00Z");
+    ExceptionReport onceExceptionReport = buildExceptionReport("seen once");
+    ExceptionReport staleExceptionReport = buildExceptionReport("seen five times");
+    ExceptionReport recentExceptionReport = buildExceptionReport("seen five times");
+    recentExceptionReport.setExceptionClass("test class");
+
+    underTest.setClock(Clock.fixed(startTime, ZoneOffset.UTC));
+    underTest.updateStats(onceExceptionReport);
+    for (int i = 0; i < 5; i++) {
+      underTest.updateStats(staleExceptionReport);
+    }
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(50), ZoneOffset.UTC));
+    underTest.updateStats(recentExceptionReport);
+    underTest.updateStats(recentExceptionReport);
+
+    assertThat(underTest.getSeenMessageHashes(1)).containsOnly("seen once", "seen five times");
+    assertThat(underTest.getSeenMessageHashes(2)).containsOnly("seen five times");
+    assertThat(underTest.getSeenMessageHashes(5)).containsOnly("seen five times");
+    assertThat(underTest.getSeenMessageHashes(6)).isEmpty();
+
+    // Only the report seen twice is left
+    underTest.setClock(Clock.fixed(startTime.plusSeconds(100), ZoneOffset.UTC));
+    underTest.reset(Optional.of(60));
+
+    assertThat(underTest.getSeenMessageHashes(1)).containsOnly("seen five times");
+    assertThat(underTest.getSeenMessageHashes(2)).containsOnly("seen five times");
+    assertThat(underTest.getSeenMessageHashes(3)).isEmpty();
+  }
+
+  private CachingDataStore buildEvictingDataStore(int maxSeenMessages, int maxSeenMessageAge) {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
+    return new CachingDataStore(
+        autoQuarantineRuleRepository, 0, true, 100, false, maxSeenMessages, maxSeenMessageAge, 0);
+  }
+
+  private double getStoreSize(SimpleMeterRegistry meterRegistry, String collection) {
+    return meterRegistry
+        .get("exceptionmanager.store.size")
+        .tag("collection", collection)
+        .gauge()
+        .value();
+  }
+
+  private ExceptionReport buildExceptionReport(String messageHash) {
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash(messageHash);
+    exceptionReport.setService("test service");
+    return exceptionReport;
+  }
 }
@@ -0,0 +1,56 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import uk.gov.ons.census.exceptionmanager.model.dto.HeavyHitter;
+
+public class HeavyHittersTest {
+
+  @Test
+  public void testFindsHeaviestAmongManyKeys() {
+    HeavyHitters underTest = new HeavyHitters();
+
+    // Far more keys than are kept, with the heavy ones turning up late and interleaved with noise
+    for (int i = 0; i < 100000; i++) {
+      underTest.record("noise " + i);
+      if (i >= 50000) {
+        underTest.record("heaviest");
+        if (i % 2 == 0) {
+          underTest.record("second heaviest");
+        }
+      }
+    }
+
+    List<HeavyHitter> top = underTest.getTop(2);
+
+    assertThat(top).extracting(HeavyHitter::getKey).containsExactly("heaviest", "second heaviest");
+    // Never under, and only over by a little
+    assertThat(top.get(0).getSeenCount()).isBetween(50000L, 50500L);
+    assertThat(top.get(1).getSeenCount()).isBetween(25000L, 25500L);
+  }
+
+  @Test
+  public void testKeepsNoMoreThanCapacity() {
+    HeavyHitters underTest = new HeavyHitters();
+
+    for (int i = 0; i < HeavyHitters.CAPACITY * 3; i++) {
+      underTest.record("key " + i);
+    }
+
+    assertThat(underTest.getTop(Integer.MAX_VALUE)).hasSize(HeavyHitters.CAPACITY);
+  }
+
+  @Test
+  public void testClear() {
+    HeavyHitters underTest = new HeavyHitters();
+    underTest.record("key");
+
+    underTest.clear();
+
+    assertThat(underTest.getTop(10)).isEmpty();
+    underTest.record("key");
+    assertThat(underTest.getTop(10).get(0).getSeenCount()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,151 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
+import uk.gov.ons.census.exceptionmanager.model.entity.AutoQuarantineRule;
+import uk.gov.ons.census.exceptionmanager.persistence.QuarantineRuleIndex.Guard;
+import uk.gov.ons.census.exceptionmanager.persistence.QuarantineRuleIndex.IndexedField;
+
+public class QuarantineRuleIndexTest {
+  private final SpelExpressionParser expressionParser = new SpelExpressionParser();
+
+  @Test
+  public void testFindGuardWholeExpression() {
+    Optional<Guard> guard = findGuard("service == 'test service'");
+
+    assertThat(guard).isPresent();
+    assertThat(guard.get().getField()).isEqualTo(IndexedField.SERVICE);
+    assertThat(guard.get().getValue()).isEqualTo("test service");
+  }
+
+  @Test
+  public void testFindGuardReversedEquality() {
+    Optional<Guard> guard = findGuard("\"test subscription\" == subscription");
+
+    assertThat(guard).isPresent();
+    assertThat(guard.get().getField()).isEqualTo(IndexedField.SUBSCRIPTION);
+    assertThat(guard.get().getValue()).isEqualTo("test subscription");
+  }
+
+  @Test
+  public void testFindGuardInTopLevelAnd() {
+    Optional<Guard> guard =
+        findGuard(
+            "exceptionMessage.contains('noodle') and exceptionClass == 'test class'"
+                + " and exceptionRootCause != null");
+
+    assertThat(guard).isPresent();
+    assertThat(guard.get().getField()).isEqualTo(IndexedField.EXCEPTION_CLASS);
+    assertThat(guard.get().getValue()).isEqualTo("test class");
+  }
+
+  @Test
+  public void testNoGuardInOr() {
+    assertThat(findGuard("service == 'test service' or subscription == 'test subscription'"))
+        .isEmpty();
+  }
+
+  @Test
+  public void testNoGuardInNegation() {
+    assertThat(findGuard("!(service == 'test service')")).isEmpty();
+    assertThat(findGuard("service != 'test service'")).isEmpty();
+  }
+
+  @Test
+  public void testNoGuardOnUnindexedProperty() {
+    assertThat(findGuard("exceptionMessage == 'test message'")).isEmpty();
+  }
+
+  @Test
+  public void testFindCandidateRules() {
+    QuarantineRuleExpression serviceRule = parse("service == 'test service' and true");
+    QuarantineRuleExpression otherServiceRule = parse("service == 'other service'");
+    QuarantineRuleExpression subscriptionRule = parse("subscription == 'test subscription'");
+    QuarantineRuleExpression unindexedRule = parse("exceptionMessage.contains('test')");
+    QuarantineRuleIndex underTest =
+        new QuarantineRuleIndex(
+            List.of(serviceRule, otherServiceRule, subscriptionRule, unindexedRule));
+
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setService("test service");
+    exceptionReport.setSubscription("other subscription");
+
+    assertThat(underTest.findCandidateRules(exceptionReport))
+        .containsExactlyInAnyOrder(serviceRule, unindexedRule);
+  }
+
+  @Test
+  public void testFindCandidateRulesWithNullFields() {
+    QuarantineRuleExpression serviceRule = parse("service == 'test service'");
+    QuarantineRuleExpression unindexedRule = parse("true");
+    QuarantineRuleIndex underTest = new QuarantineRuleIndex(List.of(serviceRule, unindexedRule));
+
+    assertThat(underTest.findCandidateRules(new ExceptionReport())).containsExactly(unindexedRule);
+  }
+
+  @Test
+  public void testWithAndWithoutRuleLeaveOriginalUnchanged() {
+    QuarantineRuleExpression ruleOne = parse("service == 'test service'");
+    ruleOne.getRule().setId(UUID.randomUUID());
+    QuarantineRuleExpression ruleTwo = parse("true");
+    ruleTwo.getRule().setId(UUID.randomUUID());
+    QuarantineRuleIndex original = new QuarantineRuleIndex(List.of(ruleOne));
+
+    QuarantineRuleIndex added = original.withRule(ruleTwo);
+    QuarantineRuleIndex removed = added.withoutRule(ruleOne.getRule().getId());
+
+    assertThat(original.getRuleExpressions()).containsExactly(ruleOne);
+    assertThat(added.getRuleExpressions()).containsExactly(ruleOne, ruleTwo);
+    assertThat(removed.getRuleExpressions()).containsExactly(ruleTwo);
+
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setService("test service");
+    assertThat(original.findCandidateRules(exceptionReport)).containsExactly(ruleOne);
+    assertThat(removed.findCandidateRules(exceptionReport)).containsExactly(ruleTwo);
+  }
+
+  @Test
+  public void testWithoutExpiredRules() {
+    OffsetDateTime now = OffsetDateTime.parse("2020-01-01T00:00:00Z");
+    QuarantineRuleExpression liveRule = parse("service == 'test service'");
+    QuarantineRuleExpression expiredRule = parse("true");
+    expiredRule.getRule().setRuleExpiryDateTime(now.minusMinutes(1));
+    QuarantineRuleIndex original = new QuarantineRuleIndex(List.of(liveRule, expiredRule));
+
+    QuarantineRuleIndex reaped = original.withoutExpiredRules(now);
+
+    assertThat(original.getEarliestExpiry()).isEqualTo(now.minusMinutes(1));
+    assertThat(reaped.getRuleExpressions()).containsExactly(liveRule);
+    assertThat(reaped.getEarliestExpiry()).isEqualTo(OffsetDateTime.MAX);
+    assertThat(reaped).isNotSameAs(original);
+    assertThat(reaped.withoutExpiredRules(now)).isSameAs(reaped);
+  }
+
+  @Test
+  public void testRuleWithoutExpiryIsNeverReaped() {
+    QuarantineRuleExpression ruleWithoutExpiry = parse("true");
+    ruleWithoutExpiry.getRule().setRuleExpiryDateTime(null);
+    QuarantineRuleIndex original = new QuarantineRuleIndex(List.of(ruleWithoutExpiry));
+
+    assertThat(original.getEarliestExpiry()).isEqualTo(OffsetDateTime.MAX);
+    assertThat(original.withoutExpiredRules(OffsetDateTime.MAX)).isSameAs(original);
+  }
+
+  private Optional<Guard> findGuard(String expression) {
+    return QuarantineRuleIndex.findGuard(expressionParser.parseRaw(expression).getAST());
+  }
+
+  private QuarantineRuleExpression parse(String expression) {
+    AutoQuarantineRule rule = new AutoQuarantineRule();
+    rule.setExpression(expression);
+    rule.setRuleExpiryDateTime(OffsetDateTime.MAX);
+    return new QuarantineRuleExpression(rule, expressionParser.parseRaw(expression), false);
+  }
+}
@@ -0,0 +1,107 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import uk.gov.ons.census.exceptionmanager.model.dto.SkippedMessage;
+import uk.gov.ons.census.exceptionmanager.model.entity.PayloadCodec;
+import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessage;
+import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessagePayload;
+import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessagePayloadRepository;
+import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessageRepository;
+
+public class QuarantinedMessageReaderTest {
+  private final QuarantinedMessageRepository quarantinedMessageRepository =
+      mock(QuarantinedMessageRepository.class);
+  private final QuarantinedMessagePayloadRepository quarantinedMessagePayloadRepository =
+      mock(QuarantinedMessagePayloadRepository.class);
+  private final QuarantinedMessageReader underTest =
+      new QuarantinedMessageReader(
+          quarantinedMessageRepository, quarantinedMessagePayloadRepository);
+
+  @Test
+  public void testFindSkippedMessages() {
+    QuarantinedMessage messageOne = buildQuarantinedMessage("hash 1");
+    messageOne.setService("test service");
+    QuarantinedMessage messageTwo = buildQuarantinedMessage("hash 2");
+    // Quarantined before payloads were stored separately
+    messageTwo.setMessagePayload("legacy payload".getBytes());
+    QuarantinedMessagePayload payloadOne = new QuarantinedMessagePayload();
+    payloadOne.setMessageHash("hash 1");
+    payloadOne.setMessagePayload("payload one".getBytes());
+    payloadOne.setPayloadCodec(PayloadCodec.NONE);
+    when(quarantinedMessagePayloadRepository.findAllById(List.of("hash 2", "hash 1")))
+        .thenReturn(List.of(payloadOne));
+    when(quarantinedMessageRepository.findByMessageHashInOrderBySkippedTimestamp(
+            List.of("hash 2", "hash 1")))
+        .thenReturn(List.of(messageOne, messageTwo));
+
+    Map<String, List<SkippedMessage>> actualResult =
+        underTest.findSkippedMessages(List.of("hash 2", "hash 1"));
+
+    assertThat(actualResult).containsOnlyKeys("hash 2", "hash 1");
+    assertThat(actualResult.keySet()).containsExactly("hash 2", "hash 1");
+    SkippedMessage skippedMessageOne = actualResult.get("hash 1").get(0);
+    assertThat(skippedMessageOne.getMessagePayload()).isEqualTo("payload one".getBytes());
+    assertThat(skippedMessageOne.getService()).isEqualTo("test service");
+    assertThat(skippedMessageOne.getSkippedTimestamp())
+        .isEqualTo(messageOne.getSkippedTimestamp().toInstant());
+    assertThat(actualResult.get("hash 2").get(0).getMessagePayload())
+        .isEqualTo("legacy payload".getBytes());
+  }
+
+  @Test
+  public void testFindSkippedMessagesNeverSkipped() {
+    when(quarantinedMessageRepository.findByMessageHashInOrderBySkippedTimestamp(any()))
+        .thenReturn(Collections.emptyList());
+
+    assertThat(underTest.findSkippedMessages("test message hash")).isNull();
+  }
+
+  @Test
+  public void testIterateAllSkippedMessagesPages() {
+    List<String> allHashes =
+        IntStream.range(0, 700)
+            .mapToObj(i -> String.format("hash %03d", i))
+            .collect(Collectors.toList());
+    List<String> firstPage = allHashes.subList(0, 500);
+    List<String> secondPage = allHashes.subList(500, 700);
+    when(quarantinedMessageRepository.findMessageHashesAfter(eq(""), any(Limit.class)))
+        .thenReturn(firstPage);
+    when(quarantinedMessageRepository.findMessageHashesAfter(eq("hash 499"), any(Limit.class)))
+        .thenReturn(secondPage);
+    when(quarantinedMessageRepository.findByMessageHashInOrderBySkippedTimestamp(firstPage))
+        .thenReturn(firstPage.stream().map(this::buildQuarantinedMessage).toList());
+    when(quarantinedMessageRepository.findByMessageHashInOrderBySkippedTimestamp(secondPage))
+        .thenReturn(secondPage.stream().map(this::buildQuarantinedMessage).toList());
+
+    List<String> iteratedHashes = new ArrayList<>();
+    for (SkippedMessage skippedMessage : underTest.iterateAllSkippedMessages()) {
+      iteratedHashes.add(skippedMessage.getMessageHash());
+    }
+
+    assertThat(iteratedHashes).isEqualTo(allHashes);
+    assertThat(underTest.findAllSkippedMessages().keySet()).containsExactlyElementsOf(allHashes);
+  }
+
+  private QuarantinedMessage buildQuarantinedMessage(String messageHash) {
+    QuarantinedMessage quarantinedMessage = new QuarantinedMessage();
+    quarantinedMessage.setId(UUID.randomUUID());
+    quarantinedMessage.setMessageHash(messageHash);
+    quarantinedMessage.setSkippedTimestamp(OffsetDateTime.now());
+    return quarantinedMessage;
+  }
+}
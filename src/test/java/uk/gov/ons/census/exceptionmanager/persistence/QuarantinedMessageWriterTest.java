@@ -0,0 +1,167 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.PlatformTransactionManager;
+import uk.gov.ons.census.exceptionmanager.model.entity.PayloadCodec;
+import uk.gov.ons.census.exceptionmanager.model.entity.QuarantinedMessage;
+import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessagePayloadRepository;
+
+public class QuarantinedMessageWriterTest {
+  private static final byte[] TEST_PAYLOAD = "test payload".getBytes();
+
+  private final EntityManager entityManager = mock(EntityManager.class);
+  private final QuarantinedMessagePayloadRepository quarantinedMessagePayloadRepository =
+      mock(QuarantinedMessagePayloadRepository.class);
+  private final PlatformTransactionManager transactionManager =
+      mock(PlatformTransactionManager.class);
+
+  @Test
+  public void testWritesQueuedMessagesInOneBatch() throws Exception {
+    QuarantinedMessageWriter underTest = buildWriter(10, 0);
+    QuarantinedMessage messageOne = buildQuarantinedMessage();
+    QuarantinedMessage messageTwo = buildQuarantinedMessage();
+    QuarantinedMessage messageThree = buildQuarantinedMessage();
+    messageThree.setMessageHash("other message hash");
+
+    CompletableFuture<Void> resultOne = underTest.write(messageOne, TEST_PAYLOAD);
+    CompletableFuture<Void> resultTwo = underTest.write(messageTwo, TEST_PAYLOAD);
+    CompletableFuture<Void> resultThree = underTest.write(messageThree, TEST_PAYLOAD);
+    assertThat(resultOne).isNotDone();
+
+    underTest.start();
+    CompletableFuture.allOf(resultOne, resultTwo, resultThree).get(5, TimeUnit.SECONDS);
+    underTest.stop();
+
+    verify(entityManager).persist(messageOne);
+    verify(entityManager).persist(messageTwo);
+    verify(entityManager).persist(messageThree);
+    verify(entityManager).flush();
+    verify(quarantinedMessagePayloadRepository)
+        .storeIfAbsent("test message hash", TEST_PAYLOAD, "NONE");
+    verify(quarantinedMessagePayloadRepository)
+        .storeIfAbsent("other message hash", TEST_PAYLOAD, "NONE");
+    verifyNoMoreInteractions(quarantinedMessagePayloadRepository);
+    verify(transactionManager).commit(any());
+  }
+
+  @Test
+  public void testFailedBatchIsNotAcknowledged() throws Exception {
+    QuarantinedMessageWriter underTest = buildWriter(10, 0);
+    doThrow(new PersistenceException("test failure")).when(entityManager).flush();
+
+    CompletableFuture<Void> result = underTest.write(buildQuarantinedMessage(), TEST_PAYLOAD);
+    underTest.start();
+    underTest.stop();
+
+    assertThat(result).isCompletedExceptionally();
+    verify(transactionManager).rollback(any());
+    verify(transactionManager, never()).commit(any());
+  }
+
+  @Test
+  public void testErrorFailsBatchWithoutStoppingWriter() throws Exception {
+    QuarantinedMessageWriter underTest = buildWriter(10, 0);
+    doThrow(new OutOfMemoryError("test failure")).doNothing().when(entityManager).flush();
+    underTest.start();
+
+    CompletableFuture<Void> failed = underTest.write(buildQuarantinedMessage(), TEST_PAYLOAD);
+    assertThat(failed).failsWithin(5, TimeUnit.SECONDS);
+    CompletableFuture<Void> succeeded = underTest.write(buildQuarantinedMessage(), TEST_PAYLOAD);
+    succeeded.get(5, TimeUnit.SECONDS);
+    underTest.stop();
+
+    verify(transactionManager).rollback(any());
+    verify(transactionManager).commit(any());
+  }
+
+  @Test
+  public void testFullQueueRejectsMessage() throws Exception {
+    QuarantinedMessageWriter underTest = buildWriter(1, 0);
+
+    CompletableFuture<Void> accepted = underTest.write(buildQuarantinedMessage(), TEST_PAYLOAD);
+    CompletableFuture<Void> rejected = underTest.write(buildQuarantinedMessage(), TEST_PAYLOAD);
+
+    assertThat(rejected).isCompletedExceptionally();
+    assertThat(accepted).isNotDone();
+
+    underTest.start();
+    underTest.stop();
+
+    assertThat(accepted).isCompleted();
+    assertThat(accepted).isNotCompletedExceptionally();
+  }
+
+  @Test
+  public void testStopWritesEverythingQueuedThenRejectsMore() throws Exception {
+    QuarantinedMessageWriter underTest = buildWriter(10, 0);
+    underTest.start();
+
+    CompletableFuture<Void> resultOne = underTest.write(buildQuarantinedMessage(), TEST_PAYLOAD);
+    CompletableFuture<Void> resultTwo = underTest.write(buildQuarantinedMessage(), TEST_PAYLOAD);
+    underTest.stop();
+
+    assertThat(resultOne).isCompleted();
+    assertThat(resultTwo).isCompleted();
+    assertThat(underTest.write(buildQuarantinedMessage(), TEST_PAYLOAD)).isCompletedExceptionally();
+    verify(entityManager, times(2)).persist(any());
+  }
+
+  @Test
+  public void testLargeTextPayloadIsCompressed() throws Exception {
+    QuarantinedMessageWriter underTest = buildWriter(10, 0);
+    byte[] payload = "{\"caseRef\":\"1000000000\"}".repeat(100).getBytes();
+    QuarantinedMessage textMessage = buildQuarantinedMessage();
+    textMessage.setContentType("application/json");
+    QuarantinedMessage binaryMessage = buildQuarantinedMessage();
+    binaryMessage.setMessageHash("binary message hash");
+    binaryMessage.setContentType("application/octet-stream");
+
+    underTest.write(textMessage, payload);
+    underTest.write(binaryMessage, payload);
+    underTest.start();
+    underTest.stop();
+
+    ArgumentCaptor<byte[]> storedPayloadCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(quarantinedMessagePayloadRepository)
+        .storeIfAbsent(eq("test message hash"), storedPayloadCaptor.capture(), eq("DEFLATE"));
+    assertThat(storedPayloadCaptor.getValue().length).isLessThan(payload.length);
+    assertThat(PayloadCodec.DEFLATE.decode(storedPayloadCaptor.getValue())).isEqualTo(payload);
+    verify(quarantinedMessagePayloadRepository)
+        .storeIfAbsent("binary message hash", payload, "NONE");
+  }
+
+  private QuarantinedMessageWriter buildWriter(int queueCapacity, long enqueueTimeoutMillis) {
+    return new QuarantinedMessageWriter(
+        entityManager,
+        quarantinedMessagePayloadRepository,
+        transactionManager,
+        queueCapacity,
+        100,
+        100,
+        enqueueTimeoutMillis,
+        1024);
+  }
+
+  private QuarantinedMessage buildQuarantinedMessage() {
+    QuarantinedMessage quarantinedMessage = new QuarantinedMessage();
+    quarantinedMessage.setId(UUID.randomUUID());
+    quarantinedMessage.setMessageHash("test message hash");
+    return quarantinedMessage;
+  }
+}
@@ -0,0 +1,57 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class SeenCountIndexTest {
+
+  @Test
+  public void testFindCandidates() {
+    SeenCountIndex underTest = new SeenCountIndex();
+    underTest.add("seen once");
+    underTest.add("seen three times");
+    underTest.add("seen eight times");
+
+    for (int seenCount = 2; seenCount <= 3; seenCount++) {
+      underTest.recordSeenCount("seen three times", seenCount);
+    }
+    for (int seenCount = 2; seenCount <= 8; seenCount++) {
+      underTest.recordSeenCount("seen eight times", seenCount);
+    }
+
+    assertThat(findCandidates(underTest, 1))
+        .containsOnly("seen once", "seen three times", "seen eight times");
+    assertThat(findCandidates(underTest, 3)).containsOnly("seen three times", "seen eight times");
+    assertThat(findCandidates(underTest, 4)).containsOnly("seen eight times");
+    assertThat(findCandidates(underTest, 9)).containsOnly("seen eight times");
+    assertThat(findCandidates(underTest, 16)).isEmpty();
+  }
+
+  @Test
+  public void testReindexAndRemove() {
+    SeenCountIndex underTest = new SeenCountIndex();
+    underTest.add("test message hash");
+    for (int seenCount = 2; seenCount <= 8; seenCount++) {
+      underTest.recordSeenCount("test message hash", seenCount);
+    }
+
+    underTest.reindex("test message hash", 2);
+    assertThat(findCandidates(underTest, 2)).containsOnly("test message hash");
+    assertThat(findCandidates(underTest, 4)).isEmpty();
+
+    underTest.remove("test message hash");
+    assertThat(findCandidates(underTest, 1)).isEmpty();
+  }
+
+  private Set<String> findCandidates(SeenCountIndex underTest, int minimumSeenCount) {
+    Set<String> result = new HashSet<>();
+    for (Collection<String> candidates : underTest.findCandidates(minimumSeenCount)) {
+      result.addAll(candidates);
+    }
+    return result;
+  }
+}
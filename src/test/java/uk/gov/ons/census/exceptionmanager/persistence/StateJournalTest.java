@@ -0,0 +1,111 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.gov.ons.census.exceptionmanager.model.repository.AutoQuarantineRuleRepository;
+
+public class StateJournalTest {
+  @TempDir Path snapshotDirectory;
+
+  @Test
+  public void testReplay() throws IOException {
+    StateJournal original = new StateJournal(snapshotFile());
+    original.recordSkip("reset message hash", "test user");
+    original.recordReset();
+    original.recordSkip("test message hash", "test user");
+    original.recordSkip("other message hash", "other user");
+    original.recordPeek("peeked message hash");
+    original.close();
+
+    CachingDataStore underTest = buildDataStore();
+    int replayedCount = new StateJournal(snapshotFile()).replay(underTest, 0);
+
+    assertThat(replayedCount).isEqualTo(5);
+    assertThat(underTest.isQuarantined("reset message hash")).isFalse();
+    assertThat(underTest.getOriginatingUserOfSkipRequest("test message hash"))
+        .isEqualTo("test user");
+    assertThat(underTest.isQuarantined("other message hash")).isTrue();
+    assertThat(underTest.shouldWePeekThisMessage("peeked message hash")).isTrue();
+  }
+
+  @Test
+  public void testRotateAndDeleteCoveredSegments() throws IOException {
+    StateJournal original = new StateJournal(snapshotFile());
+    original.replay(buildDataStore(), 0);
+    original.recordSkip("covered message hash", "test user");
+
+    long segment = original.rotate();
+    original.recordSkip("test message hash", "test user");
+    original.deleteSegmentsBefore(segment);
+    original.close();
+
+    CachingDataStore underTest = buildDataStore();
+    new StateJournal(snapshotFile()).replay(underTest, 0);
+
+    assertThat(listSegments()).hasSize(2);
+    assertThat(underTest.isQuarantined("covered message hash")).isFalse();
+    assertThat(underTest.isQuarantined("test message hash")).isTrue();
+  }
+
+  @Test
+  public void testReplaySkipsSegmentsCoveredBySnapshot() throws IOException {
+    StateJournal original = new StateJournal(snapshotFile());
+    original.recordSkip("covered message hash", "test user");
+    original.recordReset();
+    long segment = original.rotate();
+    original.recordSkip("test message hash", "test user");
+    // Crashed after the snapshot was saved, but before the older segments were deleted
+    original.close();
+
+    CachingDataStore underTest = buildDataStore();
+    underTest.skipMessage("snapshot message hash", "test user");
+    int replayedCount = new StateJournal(snapshotFile()).replay(underTest, segment);
+
+    assertThat(replayedCount).isEqualTo(1);
+    assertThat(underTest.isQuarantined("snapshot message hash")).isTrue();
+    assertThat(underTest.isQuarantined("test message hash")).isTrue();
+  }
+
+  @Test
+  public void testTornRecordIgnored() throws IOException {
+    StateJournal original = new StateJournal(snapshotFile());
+    original.recordSkip("test message hash", "test user");
+    original.close();
+    Path segment = listSegments().get(0);
+    Files.write(segment, new byte[] {0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+    CachingDataStore underTest = buildDataStore();
+    int replayedCount = new StateJournal(snapshotFile()).replay(underTest, 0);
+
+    assertThat(replayedCount).isEqualTo(1);
+    assertThat(underTest.isQuarantined("test message hash")).isTrue();
+  }
+
+  private String snapshotFile() {
+    return snapshotDirectory.resolve("snapshot.bin").toString();
+  }
+
+  private List<Path> listSegments() throws IOException {
+    try (Stream<Path> files = Files.list(snapshotDirectory)) {
+      return files.sorted().toList();
+    }
+  }
+
+  private CachingDataStore buildDataStore() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
+    return new CachingDataStore(autoQuarantineRuleRepository, 1, true, 100, false, 0, 0, 0);
+  }
+}
@@ -0,0 +1,211 @@
+package uk.gov.ons.census.exceptionmanager.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.gov.ons.census.exceptionmanager.model.dto.BadMessageReport;
+import uk.gov.ons.census.exceptionmanager.model.dto.ExceptionReport;
+import uk.gov.ons.census.exceptionmanager.model.dto.Peek;
+import uk.gov.ons.census.exceptionmanager.model.dto.SkippedMessage;
+import uk.gov.ons.census.exceptionmanager.model.repository.AutoQuarantineRuleRepository;
+
+public class StateSnapshotStoreTest {
+  @TempDir Path snapshotDirectory;
+
+  @Test
+  public void testSaveAndLoad() throws IOException, InterruptedException {
+    CachingDataStore original = buildDataStore();
+    original.setClock(Clock.fixed(Instant.parse("2020-01-01T00:00:00Z"), ZoneOffset.UTC));
+    ExceptionReport exceptionReportOne = buildExceptionReport("test message hash", "class one");
+    ExceptionReport exceptionReportTwo = buildExceptionReport("test message hash", "class two");
+    exceptionReportTwo.setExceptionRootCause(null);
+    ExceptionReport otherExceptionReport = buildExceptionReport("other message hash", "class one");
+    original.updateStats(exceptionReportOne);
+    original.setClock(Clock.fixed(Instant.parse("2020-01-01T00:01:00Z"), ZoneOffset.UTC));
+    original.updateStats(exceptionReportOne);
+    original.updateStats(exceptionReportTwo);
+    original.updateStats(otherExceptionReport);
+    original.shouldWeLogThisMessage(exceptionReportOne);
+    original.skipMessage("test message hash", "test user");
+    original.peekMessage("other message hash");
+    Peek peek = new Peek();
+    peek.setMessageHash("peeked message hash");
+    peek.setMessagePayload("test payload".getBytes());
+    original.storePeekMessageReply(peek);
+    SkippedMessage skippedMessage = new SkippedMessage();
+    skippedMessage.setMessageHash("skipped message hash");
+    original.storeSkippedMessage(skippedMessage);
+
+    new StateSnapshotStore(original, snapshotFile()).save(42);
+    CachingDataStore underTest = buildDataStore();
+    StateSnapshotStore snapshotStore = new StateSnapshotStore(underTest, snapshotFile());
+    OptionalLong firstJournalSegment = snapshotStore.load();
+    snapshotStore.awaitStatsRestored();
+
+    assertThat(firstJournalSegment).hasValue(42);
+    assertThat(underTest.getSeenMessageHashes())
+        .containsOnly("test message hash", "other message hash");
+    List<BadMessageReport> badMessageReports = underTest.getBadMessageReports("test message hash");
+    assertThat(badMessageReports).hasSize(2);
+    assertThat(badMessageReports.get(0).getExceptionReport()).isEqualTo(exceptionReportOne);
+    // Recent rates aren't snapshotted; they're back to normal within the hour
+    assertThat(badMessageReports.get(0).getStats())
+        .usingRecursiveComparison()
+        .ignoringFields("rateCounter")
+        .isEqualTo(original.getBadMessageReports("test message hash").get(0).getStats());
+    assertThat(badMessageReports.get(1).getExceptionReport()).isEqualTo(exceptionReportTwo);
+    assertThat(underTest.getBadMessageSummary("test message hash"))
+        .usingRecursiveComparison()
+        .ignoringFields("rates")
+        .isEqualTo(original.getBadMessageSummary("test message hash"));
+    assertThat(underTest.getSeenMessageHashes(2)).containsOnly("test message hash");
+    assertThat(underTest.shouldWeLogThisMessage(exceptionReportOne)).isFalse();
+    assertThat(underTest.isQuarantined("test message hash")).isTrue();
+    assertThat(underTest.getOriginatingUserOfSkipRequest("test message hash"))
+        .isEqualTo("test user");
+    assertThat(underTest.shouldWePeekThisMessage("other message hash")).isTrue();
+    assertThat(underTest.getPeekedMessage("peeked message hash"))
+        .isEqualTo("test payload".getBytes());
+    assertThat(underTest.hasSkippedMessages("skipped message hash")).isTrue();
+  }
+
+  @Test
+  public void testLoadWithoutSnapshot() throws IOException {
+    assertThat(new StateSnapshotStore(buildDataStore(), snapshotFile()).load()).isEmpty();
+    assertThat(new StateSnapshotStore(buildDataStore(), "").load()).isEmpty();
+  }
+
+  @Test
+  public void testTruncatedSnapshotChangesNothing() throws IOException {
+    CachingDataStore original = buildDataStore();
+    original.skipMessage("test message hash", "test user");
+    original.skipMessage("other message hash", "test user");
+    new StateSnapshotStore(original, snapshotFile()).save(0);
+    byte[] snapshot = Files.readAllBytes(Path.of(snapshotFile()));
+    Files.write(Path.of(snapshotFile()), Arrays.copyOf(snapshot, snapshot.length - 8));
+
+    CachingDataStore underTest = buildDataStore();
+    StateSnapshotStore snapshotStore = new StateSnapshotStore(underTest, snapshotFile());
+
+    assertThatThrownBy(snapshotStore::load).isInstanceOf(IOException.class);
+    assertThat(underTest.isQuarantined("test message hash")).isFalse();
+  }
+
+  @Test
+  public void testTruncatedStatsKeepWhatWasRead() throws IOException, InterruptedException {
+    CachingDataStore original = buildDataStore();
+    original.updateStats(buildExceptionReport("test message hash", "test class"));
+    original.updateStats(buildExceptionReport("other message hash", "test class"));
+    original.skipMessage("test message hash", "test user");
+    new StateSnapshotStore(original, snapshotFile()).save(0);
+    byte[] snapshot = Files.readAllBytes(Path.of(snapshotFile()));
+    Files.write(Path.of(snapshotFile()), Arrays.copyOf(snapshot, snapshot.length - 8));
+
+    CachingDataStore underTest = buildDataStore();
+    StateSnapshotStore snapshotStore = new StateSnapshotStore(underTest, snapshotFile());
+    snapshotStore.load();
+    snapshotStore.awaitStatsRestored();
+
+    // The stats come last, so only the last report is lost
+    assertThat(underTest.isQuarantined("test message hash")).isTrue();
+    assertThat(underTest.getSeenMessageHashes()).hasSize(1);
+  }
+
+  @Test
+  public void testRestoredStatsAddToSightingsSinceRestart() throws IOException {
+    Instant snapshotTime = Instant.parse("2020-01-01T00:00:00Z");
+    Instant restartTime = Instant.parse("2020-01-01T00:10:00Z");
+    ExceptionReport exceptionReport = buildExceptionReport("test message hash", "test class");
+    CachingDataStore original = buildDataStore();
+    original.setClock(Clock.fixed(snapshotTime, ZoneOffset.UTC));
+    original.updateStats(exceptionReport);
+    original.updateStats(exceptionReport);
+    new StateSnapshotStore(original, snapshotFile()).save(0);
+
+    CachingDataStore underTest = buildDataStore();
+    underTest.setClock(Clock.fixed(restartTime, ZoneOffset.UTC));
+    SnapshotInput snapshotInput = readSnapshotFile();
+    underTest.readSnapshot(snapshotInput);
+    underTest.updateStats(exceptionReport);
+
+    assertThat(underTest.restoreSnapshotStats(snapshotInput)).isEqualTo(1);
+    List<BadMessageReport> badMessageReports = underTest.getBadMessageReports("test message hash");
+    assertThat(badMessageReports).hasSize(1);
+    assertThat(badMessageReports.get(0).getStats().getSeenCount()).hasValue(3);
+    assertThat(badMessageReports.get(0).getStats().getFirstSeen()).isEqualTo(snapshotTime);
+    assertThat(badMessageReports.get(0).getStats().getLastSeen()).isEqualTo(restartTime);
+    assertThat(underTest.getBadMessageSummary("test message hash").getSeenCount()).isEqualTo(3);
+    assertThat(underTest.getBadMessageSummary("test message hash").getFirstSeen())
+        .isEqualTo(snapshotTime);
+    assertThat(underTest.getSeenMessageHashes(3)).containsOnly("test message hash");
+  }
+
+  @Test
+  public void testStatsResetBeforeTheyAreRestoredStayReset() throws IOException {
+    CachingDataStore original = buildDataStore();
+    original.setClock(Clock.fixed(Instant.parse("2020-01-01T00:00:00Z"), ZoneOffset.UTC));
+    original.updateStats(buildExceptionReport("old message hash", "test class"));
+    original.setClock(Clock.fixed(Instant.parse("2020-01-01T00:10:00Z"), ZoneOffset.UTC));
+    original.updateStats(buildExceptionReport("recent message hash", "test class"));
+    new StateSnapshotStore(original, snapshotFile()).save(0);
+
+    CachingDataStore partlyReset = buildDataStore();
+    partlyReset.setClock(Clock.fixed(Instant.parse("2020-01-01T00:11:00Z"), ZoneOffset.UTC));
+    SnapshotInput snapshotInput = readSnapshotFile();
+    partlyReset.readSnapshot(snapshotInput);
+    partlyReset.reset(Optional.of(300));
+    partlyReset.restoreSnapshotStats(snapshotInput);
+
+    assertThat(partlyReset.getSeenMessageHashes()).containsOnly("recent message hash");
+
+    CachingDataStore fullyReset = buildDataStore();
+    snapshotInput = readSnapshotFile();
+    fullyReset.readSnapshot(snapshotInput);
+    fullyReset.reset(Optional.empty());
+
+    assertThat(fullyReset.restoreSnapshotStats(snapshotInput)).isZero();
+    assertThat(fullyReset.getSeenMessageHashes()).isEmpty();
+  }
+
+  private SnapshotInput readSnapshotFile() throws IOException {
+    return new SnapshotInput(ByteBuffer.wrap(Files.readAllBytes(Path.of(snapshotFile()))));
+  }
+
+  private String snapshotFile() {
+    return snapshotDirectory.resolve("snapshot.bin").toString();
+  }
+
+  private CachingDataStore buildDataStore() {
+    AutoQuarantineRuleRepository autoQuarantineRuleRepository =
+        mock(AutoQuarantineRuleRepository.class);
+    when(autoQuarantineRuleRepository.findAll()).thenReturn(Collections.emptyList());
+    return new CachingDataStore(autoQuarantineRuleRepository, 1, true, 100, false, 0, 0, 0);
+  }
+
+  private ExceptionReport buildExceptionReport(String messageHash, String exceptionClass) {
+    ExceptionReport exceptionReport = new ExceptionReport();
+    exceptionReport.setMessageHash(messageHash);
+    exceptionReport.setService("test service");
+    exceptionReport.setSubscription("test subscription");
+    exceptionReport.setExceptionClass(exceptionClass);
+    exceptionReport.setExceptionMessage("test exception message");
+    exceptionReport.setExceptionRootCause("test root cause");
+    return exceptionReport;
+  }
+}
@@ -0,0 +1,27 @@
+package uk.gov.ons.census.exceptionmanager.schedule;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+import uk.gov.ons.census.exceptionmanager.model.repository.QuarantinedMessagePayloadRepository;
+
+public class OrphanedPayloadReaperTest {
+  @Test
+  public void testReapsPayloadsOlderThanGracePeriod() {
+    QuarantinedMessagePayloadRepository quarantinedMessagePayloadRepository =
+        mock(QuarantinedMessagePayloadRepository.class);
+    OrphanedPayloadReaper underTest =
+        new OrphanedPayloadReaper(quarantinedMessagePayloadRepository, 60);
+    underTest.setClock(Clock.fixed(Instant.parse("2020-01-01T00:10:00Z"), ZoneOffset.UTC));
+
+    underTest.reapOrphanedPayloads();
+
+    verify(quarantinedMessagePayloadRepository)
+        .deleteUnreferencedPayloads(OffsetDateTime.parse("2020-01-01T00:09:00Z"));
+  }
+}